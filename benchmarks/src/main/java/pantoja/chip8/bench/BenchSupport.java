@@ -0,0 +1,39 @@
+package pantoja.chip8.bench;
+
+import pantoja.chip8.io.IKeypad;
+
+import java.nio.file.Path;
+
+/**
+ * Shared fixtures for the benchmarks
+ */
+final class BenchSupport {
+    /**
+     * Keypad with nothing ever pressed, Fx0A simply keeps waiting
+     */
+    static final IKeypad NO_KEYS = new IKeypad() {
+        @Override
+        public boolean isPressed(int key) {
+            return false;
+        }
+
+
+        @Override
+        public int pollForKeyPress() {
+            return -1;
+        }
+    };
+
+
+    private BenchSupport() {
+    }
+
+
+    /**
+     * Resolves a ROM name against the chip8.roms system property, set by the run profile to the repo's data/roms
+     */
+    static String romPath(String name) {
+        String dir = System.getProperty("chip8.roms", "../data/roms");
+        return Path.of(dir, name).toString();
+    }
+}
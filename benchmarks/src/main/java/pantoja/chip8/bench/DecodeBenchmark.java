@@ -0,0 +1,79 @@
+package pantoja.chip8.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pantoja.chip8.instructions.BlockDecoder;
+import pantoja.chip8.instructions.CachedDecoder;
+import pantoja.chip8.instructions.Chip8Executor;
+import pantoja.chip8.instructions.Decoder;
+import pantoja.chip8.instructions.IDecoder;
+import pantoja.chip8.memory.Chip8Bus;
+import pantoja.chip8.memory.Chip8Ram;
+import pantoja.chip8.memory.CpuState;
+import pantoja.chip8.memory.FrameBuffer;
+import pantoja.chip8.memory.IBus;
+import pantoja.chip8.util.XorShiftRandom;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetch, decode and dispatch cost of each engine on a straight line loop of register, I and timer instructions.
+ * The loop never draws or waits for a key, so every invocation executes exactly BATCH instructions and the score
+ * is instructions per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DecodeBenchmark {
+    private static final int BATCH = 1024;
+
+    private static final int[] LOOP = {
+            0x6012, 0x6134, 0x7201, 0x8010, 0x8121, 0x8232, 0x8303, 0x8014,
+            0x8125, 0x8236, 0x8307, 0x801E, 0xA300, 0xF01E, 0xF115, 0xF207,
+            0x7305, 0x8454, 0x8565, 0x7601, 0x8770, 0x8871, 0x8982, 0xAFFF,
+            0x1200
+    };
+
+    @Param({"decoder", "cached", "block"})
+    public String engine;
+
+    private CpuState cpuState;
+    private IDecoder decoder;
+
+
+    @Setup
+    public void setup() {
+        IBus bus = new Chip8Bus(new Chip8Ram());
+        for (int i = 0; i < LOOP.length; i++) {
+            bus.write16(Chip8Bus.PROGRAM_START + i * 2, LOOP[i]);
+        }
+        cpuState = new CpuState(bus);
+        Chip8Executor executor = new Chip8Executor(cpuState, new FrameBuffer(64, 32), BenchSupport.NO_KEYS, bus,
+                new XorShiftRandom(1));
+        decoder = switch (engine) {
+            case "cached" -> new CachedDecoder(executor, bus);
+            case "block" -> new BlockDecoder(executor, bus);
+            default -> new Decoder(executor);
+        };
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int execute() {
+        return decoder.run(cpuState, BATCH);
+    }
+}
@@ -0,0 +1,78 @@
+package pantoja.chip8.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pantoja.chip8.memory.FrameBuffer;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sprite blitting and clearing on the packed frame buffer, with sprites of random height at random positions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DrawBenchmark {
+    private static final int SPRITES = 1024;
+
+    @Param({"64x32", "128x64"})
+    public String resolution;
+
+    @Param({"false", "true"})
+    public boolean wrap;
+
+    private FrameBuffer frameBuffer;
+    private int[] xs;
+    private int[] ys;
+    private int[][] sprites;
+    private int next;
+
+
+    @Setup
+    public void setup() {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        frameBuffer = new FrameBuffer(width, height, wrap);
+
+        SplittableRandom random = new SplittableRandom(8);
+        xs = new int[SPRITES];
+        ys = new int[SPRITES];
+        sprites = new int[SPRITES][];
+        for (int i = 0; i < SPRITES; i++) {
+            xs[i] = random.nextInt(width);
+            ys[i] = random.nextInt(height);
+            sprites[i] = new int[1 + random.nextInt(15)];
+            for (int r = 0; r < sprites[i].length; r++) {
+                sprites[i][r] = random.nextInt(256);
+            }
+        }
+    }
+
+
+    @Benchmark
+    public boolean drawSprite() {
+        int i = next++ & (SPRITES - 1);
+        return frameBuffer.drawSprite(xs[i], ys[i], sprites[i]);
+    }
+
+
+    @Benchmark
+    public FrameBuffer clear() {
+        frameBuffer.clear();
+        return frameBuffer;
+    }
+}
@@ -0,0 +1,97 @@
+package pantoja.chip8.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pantoja.chip8.memory.FrameBuffer;
+import pantoja.chip8.util.Config;
+import pantoja.chip8.ux.DisplayPanel;
+import pantoja.chip8.ux.FrameHandoff;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame buffer to screen: publishing through the handoff and painting the DisplayPanel into an offscreen image.
+ * Runs headless, so this is the software pipeline, an accelerated on screen blit will be cheaper.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    private static final int[] SPRITE = {0xF0};
+
+    @Param({"64x32", "128x64"})
+    public String resolution;
+
+    @Param({"1", "15"})
+    public int scale;
+
+    private FrameBuffer frameBuffer;
+    private FrameHandoff handoff;
+    private DisplayPanel panel;
+    private Graphics2D graphics;
+
+
+    @Setup
+    public void setup() {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        Config.set(Config.get().toBuilder().width(width).height(height).scale(scale).build());
+
+        frameBuffer = new FrameBuffer(width, height);
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 200; i++) {
+            int[] sprite = {random.nextInt(256), random.nextInt(256), random.nextInt(256)};
+            frameBuffer.drawSprite(random.nextInt(width), random.nextInt(height), sprite);
+        }
+
+        handoff = new FrameHandoff(frameBuffer);
+        panel = new DisplayPanel(frameBuffer, handoff);
+        BufferedImage screen = new BufferedImage(width * scale, height * scale, BufferedImage.TYPE_INT_RGB);
+        graphics = screen.createGraphics();
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+
+    @Benchmark
+    public void publish() {
+        handoff.publish(frameBuffer);
+    }
+
+
+    // Every frame changes, so the panel has to refill its image before blitting
+    @Benchmark
+    public void paintChangedFrame() {
+        frameBuffer.drawSprite(0, 0, SPRITE);
+        handoff.publish(frameBuffer);
+        panel.paintComponent(graphics);
+    }
+
+
+    // Nothing new was published, only the blit remains
+    @Benchmark
+    public void paintUnchangedFrame() {
+        panel.paintComponent(graphics);
+    }
+}
@@ -0,0 +1,86 @@
+package pantoja.chip8.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pantoja.chip8.emulator.Machine;
+import pantoja.chip8.io.HeadlessDisplay;
+import pantoja.chip8.io.SilentAudio;
+import pantoja.chip8.util.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs real ROMs headless, one frame per operation. The primary score is frames per second with the default
+ * timing settings, the instructions counter reports instructions per second over the same run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RomBenchmark {
+
+    @Param({
+            "splash.ch8",
+            "chip8-test-suite/1-chip8-logo.ch8",
+            "chip8-test-suite/2-ibm-logo.ch8",
+            "chip8-test-suite/3-corax+.ch8",
+            "chip8-test-suite/4-flags.ch8",
+            "chip8-test-suite/5-quirks.ch8"
+    })
+    public String rom;
+
+    @Param({"decoder", "cached", "block"})
+    public String engine;
+
+    // Skipped idle loop laps count as executed, so with skipping on the counter is emulated instructions per second
+    @Param({"false", "true"})
+    public boolean skipIdleLoops;
+
+    private Machine machine;
+
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long instructions;
+
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            instructions = 0;
+        }
+    }
+
+
+    // Test ROMs finish and idle after a few seconds, reloading each iteration keeps the measured mix comparable
+    @Setup(Level.Iteration)
+    public void setup() {
+        Config.Configuration cfg = Config.defaults().toBuilder()
+                .romPath(BenchSupport.romPath(rom))
+                .decoderCache(!engine.equals("decoder"))
+                .blockCompiler(engine.equals("block"))
+                .skipIdleLoops(skipIdleLoops)
+                .build();
+        machine = new Machine(new HeadlessDisplay(), new SilentAudio(), BenchSupport.NO_KEYS);
+        machine.load(cfg);
+    }
+
+
+    @Benchmark
+    public void frame(Counters counters) {
+        counters.instructions += machine.runFrame();
+    }
+}
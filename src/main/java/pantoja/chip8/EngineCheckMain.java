@@ -0,0 +1,171 @@
+package pantoja.chip8;
+
+import pantoja.chip8.emulator.Machine;
+import pantoja.chip8.io.HeadlessDisplay;
+import pantoja.chip8.io.HeadlessKeypad;
+import pantoja.chip8.io.SilentAudio;
+import pantoja.chip8.util.Config;
+import pantoja.chip8.util.Profile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Runs ROMs under every execution engine side by side and checks they stay in the same state, frame by frame.
+ * <p>
+ * The plain decoder is the reference, the cached decoder and the block compiler must produce the same snapshot hash
+ * after every frame. Directories are expanded to the .ch8 files in them, so the whole test suite is one argument.
+ * <pre>
+ * EngineCheckMain &lt;rom|dir&gt;... [--frames N] [--profile chip8|schip|xochip|all] [--select N] [--seed N]
+ * </pre>
+ * --select writes N to 0x1FF before the first frame, where the test suite ROMs look for a preselected menu entry.
+ * Exits with status 1 if any engine diverges.
+ */
+public class EngineCheckMain {
+    private static final String USAGE = "Usage: EngineCheckMain <rom|dir>... [--frames N]"
+            + " [--profile chip8|schip|xochip|all] [--select N] [--seed N]";
+
+    private static final long DEFAULT_FRAMES = 3_600;
+    private static final String[] ENGINES = {"decoder", "cached", "block"};
+    private static final int SELECT_ADDRESS = 0x1FF;
+
+
+    public static void main(String[] args) {
+        List<Path> roms = new ArrayList<>();
+        long frames = DEFAULT_FRAMES;
+        List<Profile> profiles = List.of(Profile.values());
+        int select = 0;
+        long seed = HeadlessMain.DEFAULT_SEED;
+
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                if (!addRoms(Path.of(args[i]), roms)) {
+                    System.out.println("ROM not found: " + args[i]);
+                    System.exit(1);
+                }
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                System.out.println("Missing value for " + args[i]);
+                System.out.println(USAGE);
+                System.exit(1);
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "--frames" -> frames = Long.parseLong(value);
+                case "--profile" -> profiles = value.equals("all")
+                        ? List.of(Profile.values()) : List.of(Profile.valueOf(value.toUpperCase()));
+                case "--select" -> select = Integer.parseInt(value);
+                case "--seed" -> seed = Long.parseLong(value);
+                default -> {
+                    System.out.println("Unknown option " + args[i - 1]);
+                    System.out.println(USAGE);
+                    System.exit(1);
+                }
+            }
+        }
+        if (roms.isEmpty()) {
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        int failures = 0;
+        for (Path rom : roms) {
+            for (Profile profile : profiles) {
+                Result result = check(rom, profile, frames, select, seed);
+                if (result.diverged) {
+                    failures++;
+                }
+                System.out.printf("%-6s %-8s %s%n", result.diverged ? "FAIL" : "OK", profile.name().toLowerCase(),
+                        rom + (result.detail == null ? "" : ", " + result.detail));
+            }
+        }
+        System.out.println(failures == 0 ? "All engines agree" : failures + " runs diverged");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+
+    static final class Result {
+        final boolean diverged;
+        // Where the first divergence happened, or the error every engine stopped on, null for a clean run
+        final String detail;
+
+
+        private Result(boolean diverged, String detail) {
+            this.diverged = diverged;
+            this.detail = detail;
+        }
+    }
+
+
+    /**
+     * Runs one ROM under all engines in lockstep. A ROM that crashes, for example by running off the end of memory,
+     * still passes when every engine fails the same way on the same frame.
+     */
+    static Result check(Path rom, Profile profile, long frames, int select, long seed) {
+        Machine[] machines = new Machine[ENGINES.length];
+        for (int e = 0; e < ENGINES.length; e++) {
+            Config.Configuration.Builder b = Config.defaults().toBuilder()
+                    .romPath(rom.toString()).randomSeed(seed).profile(profile);
+            HeadlessMain.applyEngine(b, ENGINES[e]);
+            machines[e] = new Machine(new HeadlessDisplay(), new SilentAudio(), new HeadlessKeypad());
+            machines[e].load(b.build());
+            if (select != 0) {
+                machines[e].getBus().write8(SELECT_ADDRESS, select);
+            }
+        }
+
+        for (long f = 0; f < frames; f++) {
+            int[] executed = new int[ENGINES.length];
+            String[] errors = new String[ENGINES.length];
+            for (int e = 0; e < ENGINES.length; e++) {
+                try {
+                    executed[e] = machines[e].runFrame();
+                } catch (RuntimeException ex) {
+                    errors[e] = ex.toString();
+                }
+            }
+            for (int e = 1; e < ENGINES.length; e++) {
+                if (!Objects.equals(errors[e], errors[0])) {
+                    return new Result(true, String.format("%s stopped with %s at frame %d, %s with %s", ENGINES[e],
+                            errors[e], f, ENGINES[0], errors[0]));
+                }
+            }
+            if (errors[0] != null) {
+                return new Result(false, "every engine stopped at frame " + f + " with " + errors[0]);
+            }
+            int reference = machines[0].stateHash();
+            for (int e = 1; e < ENGINES.length; e++) {
+                int hash = machines[e].stateHash();
+                if (hash != reference || executed[e] != executed[0]) {
+                    return new Result(true, String.format("%s differs from %s at frame %d (PC %03X vs %03X)",
+                            ENGINES[e], ENGINES[0], f, machines[e].getCpuState().pc, machines[0].getCpuState().pc));
+                }
+            }
+        }
+        return new Result(false, null);
+    }
+
+
+    private static boolean addRoms(Path path, List<Path> roms) {
+        if (Files.isRegularFile(path)) {
+            roms.add(path);
+            return true;
+        }
+        if (!Files.isDirectory(path)) {
+            return false;
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            files.filter(p -> p.toString().endsWith(".ch8")).sorted().forEach(roms::add);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Unable to list " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
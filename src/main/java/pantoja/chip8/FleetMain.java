@@ -0,0 +1,119 @@
+package pantoja.chip8;
+
+import pantoja.chip8.emulator.Fleet;
+import pantoja.chip8.util.Config;
+import pantoja.chip8.util.FileIO;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs many headless copies of one ROM at once across a work stealing pool and reports aggregate and per instance
+ * throughput, for sizing how many sessions a host can carry.
+ * <pre>
+ * FleetMain &lt;rom&gt; [--instances N] [--frames N] [--warmup N] [--threads N] [--slice N] [--ipf N]
+ *           [--engine decoder|cached|block] [--seed N] [--idle-skip on|off]
+ * </pre>
+ */
+public class FleetMain {
+    private static final String USAGE = "Usage: FleetMain <rom> [--instances N] [--frames N] [--warmup N] "
+            + "[--threads N] [--slice N] [--ipf N] [--engine decoder|cached|block] [--seed N]"
+            + " [--idle-skip on|off]";
+
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        String rom = args[0];
+        int instances = 1000;
+        long frames = 3600;
+        long warmup = 600;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int slice = 60;
+        String engine = "cached";
+        Config.Configuration.Builder b = Config.defaults().toBuilder().romPath(rom).randomSeed(HeadlessMain.DEFAULT_SEED);
+
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                System.out.println("Missing value for " + args[i]);
+                System.out.println(USAGE);
+                System.exit(1);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--instances" -> instances = Integer.parseInt(value);
+                case "--frames" -> frames = Long.parseLong(value);
+                case "--warmup" -> warmup = Long.parseLong(value);
+                case "--threads" -> threads = Integer.parseInt(value);
+                case "--slice" -> slice = Integer.parseInt(value);
+                case "--ipf" -> b.instructionsPerFrame(Integer.parseInt(value));
+                case "--engine" -> engine = value;
+                case "--seed" -> b.randomSeed(Long.parseLong(value));
+                case "--idle-skip" -> b.skipIdleLoops(value.equals("on"));
+                default -> {
+                    System.out.println("Unknown option " + args[i]);
+                    System.out.println(USAGE);
+                    System.exit(1);
+                }
+            }
+        }
+        if (!HeadlessMain.applyEngine(b, engine)) {
+            System.out.println("Unknown engine " + engine);
+            System.exit(1);
+        }
+
+        // Read once, every machine copies from the same image
+        byte[] image;
+        try {
+            image = FileIO.readAllBytes(rom);
+        } catch (IOException e) {
+            System.out.println("Unable to read ROM: " + rom);
+            System.exit(1);
+            return;
+        }
+
+        Config.Configuration cfg = b.build();
+        Fleet fleet = new Fleet(instances, cfg, image);
+        if (warmup > 0) {
+            fleet.run(warmup, threads, slice);
+            fleet.reload();
+        }
+        long wall = fleet.run(frames, threads, slice);
+
+        List<Fleet.Instance> list = fleet.getInstances();
+        long failures = list.stream().filter(i -> i.getFailure() != null).count();
+        long totalInstructions = list.stream().mapToLong(Fleet.Instance::getInstructions).sum();
+        long totalFrames = list.stream().mapToLong(Fleet.Instance::getFrames).sum();
+        double[] mips = list.stream()
+                .filter(i -> i.getBusyNanos() > 0)
+                .mapToDouble(i -> i.getInstructions() * 1e3 / i.getBusyNanos())
+                .sorted()
+                .toArray();
+
+        double seconds = wall / 1e9;
+        double realTimeFps = (double) cfg.timerHz;
+        System.out.println("ROM:            " + rom);
+        System.out.println("Engine:         " + engine + ", " + cfg.frameBatchSize + " instructions per frame");
+        System.out.println("Instances:      " + instances + " on " + threads + " threads, " + slice + " frame slices");
+        System.out.printf("Elapsed:        %.3f s%n", seconds);
+        System.out.printf("Aggregate:      %.2f MIPS, %.0f frames/s (%.0f real time sessions)%n",
+                totalInstructions / seconds / 1e6, totalFrames / seconds, totalFrames / seconds / realTimeFps);
+        System.out.printf("Per instance:   %.2f MIPS, %.0f frames/s over the whole run%n",
+                totalInstructions / seconds / 1e6 / instances, totalFrames / seconds / instances);
+        if (mips.length > 0) {
+            System.out.printf("While running:  MIPS min %.2f, median %.2f, p99 %.2f, max %.2f%n",
+                    mips[0], mips[mips.length / 2], mips[Math.min(mips.length - 1, (int) (mips.length * 0.99))],
+                    mips[mips.length - 1]);
+        }
+        if (failures > 0) {
+            System.out.println("Failed:         " + failures + " instances");
+            list.stream()
+                    .filter(i -> i.getFailure() != null)
+                    .findFirst()
+                    .ifPresent(i -> System.out.println("First failure:  " + i.getFailure()));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package pantoja.chip8;
+
+import pantoja.chip8.emulator.Machine;
+import pantoja.chip8.io.HeadlessDisplay;
+import pantoja.chip8.io.HeadlessKeypad;
+import pantoja.chip8.io.RenderedAudio;
+import pantoja.chip8.io.SilentAudio;
+import pantoja.chip8.io.ToneGenerator;
+import pantoja.chip8.io.WavFileSink;
+import pantoja.chip8.util.Config;
+import pantoja.chip8.util.Profile;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs a ROM with no display and no pacing, as fast as the host allows, then reports throughput.
+ * <p>
+ * Time inside the machine is counted in frames, each frame runs up to instructionsPerFrame instructions and then
+ * ticks the timers once, so a run is reproducible regardless of how fast the host is.
+ * <pre>
+ * HeadlessMain &lt;rom&gt; [--frames N | --instructions N] [--warmup N] [--ipf N] [--engine decoder|cached|block]
+ *              [--seed N] [--idle-skip on|off] [--wav out.wav] [--profile chip8|schip|xochip]
+ * </pre>
+ * With --wav the sound timer is rendered against emulated time into a WAV file, and the audio hash is reported.
+ */
+public class HeadlessMain {
+    private static final String USAGE = "Usage: HeadlessMain <rom> [--frames N | --instructions N] [--warmup N] "
+            + "[--ipf N] [--engine decoder|cached|block] [--seed N]"
+            + " [--idle-skip on|off] [--wav out.wav] [--profile chip8|schip|xochip]";
+
+    private static final long DEFAULT_FRAMES = 60_000;
+    private static final long DEFAULT_WARMUP_FRAMES = 6_000;
+    // A fixed seed so ROMs using CXNN repeat too, 0 would pick a new one per run
+    static final long DEFAULT_SEED = 1;
+
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        String rom = args[0];
+        long frames = DEFAULT_FRAMES;
+        long instructions = 0;
+        long warmup = DEFAULT_WARMUP_FRAMES;
+        Config.Configuration.Builder b = Config.defaults().toBuilder().romPath(rom).randomSeed(DEFAULT_SEED);
+        String engine = "cached";
+        String wav = null;
+
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                System.out.println("Missing value for " + args[i]);
+                System.out.println(USAGE);
+                System.exit(1);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--frames" -> {
+                    frames = Long.parseLong(value);
+                    instructions = 0;
+                }
+                case "--instructions" -> {
+                    instructions = Long.parseLong(value);
+                    frames = 0;
+                }
+                case "--warmup" -> warmup = Long.parseLong(value);
+                case "--ipf" -> b.instructionsPerFrame(Integer.parseInt(value));
+                case "--engine" -> engine = value;
+                case "--seed" -> b.randomSeed(Long.parseLong(value));
+                case "--idle-skip" -> {
+                    if (!value.equals("on") && !value.equals("off")) {
+                        System.out.println("--idle-skip takes on or off, not " + value);
+                        System.out.println(USAGE);
+                        System.exit(1);
+                    }
+                    b.skipIdleLoops(value.equals("on"));
+                }
+                case "--wav" -> wav = value;
+                case "--profile" -> b.profile(Profile.valueOf(value.toUpperCase()));
+                default -> {
+                    System.out.println("Unknown option " + args[i]);
+                    System.out.println(USAGE);
+                    System.exit(1);
+                }
+            }
+        }
+
+        // Chip8Ram falls back to the splash screen on a bad path, which would silently measure the wrong ROM
+        if (!Files.isRegularFile(Path.of(rom))) {
+            System.out.println("ROM not found: " + rom);
+            System.exit(1);
+        }
+
+        if (!applyEngine(b, engine)) {
+            System.out.println("Unknown engine " + engine);
+            System.exit(1);
+        }
+
+        Config.Configuration cfg = b.build();
+        Machine machine = new Machine(new HeadlessDisplay(), new SilentAudio(), new HeadlessKeypad());
+
+        // Warm up the JIT on the same ROM, then start the measured run from a fresh load
+        machine.load(cfg);
+        for (long f = 0; f < warmup; f++) {
+            machine.runFrame();
+        }
+        machine.load(cfg);
+        WavFileSink sink = null;
+        RenderedAudio audio = null;
+        if (wav != null) {
+            try {
+                sink = new WavFileSink(Path.of(wav));
+            } catch (IOException e) {
+                System.out.println("Unable to write " + wav + ": " + e.getMessage());
+                System.exit(1);
+            }
+            audio = new RenderedAudio(new ToneGenerator(cfg.soundFreq, cfg.soundAmplitude, cfg.squareWave),
+                    sink, cfg.timerHz);
+            machine.setAudio(audio);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threads);
+        long executed = 0;
+        long framesRun = 0;
+        long start = System.nanoTime();
+        // An instruction budget stops at the first frame boundary at or past it, or when 00FD exits the program
+        while ((frames > 0) ? framesRun < frames : executed < instructions && !machine.getCpuState().halted) {
+            executed += machine.runFrame();
+            framesRun++;
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+        if (sink != null) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                System.out.println("Unable to finish " + wav + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        double seconds = elapsed / 1e9;
+        double emulatedSeconds = (double) framesRun / cfg.timerHz;
+        System.out.println("ROM:            " + rom);
+        System.out.println("Engine:         " + engine + ", " + cfg.frameBatchSize + " instructions per frame");
+        System.out.printf("Frames:         %d (%.1f s emulated)%n", framesRun, emulatedSeconds);
+        System.out.println("Instructions:   " + executed);
+        if (machine.getCpuState().halted) {
+            System.out.println("Halted:         the program exited with 00FD");
+        }
+        long skipped = machine.getSkippedInstructions();
+        if (skipped > 0) {
+            System.out.printf("Idle skipped:   %d (%.1f%% idle loop laps or Fx0A waits, counted but not run)%n",
+                    skipped, 100.0 * skipped / executed);
+        }
+        System.out.printf("Elapsed:        %.3f s%n", seconds);
+        // Skipped laps cost nothing to run, so they would inflate the rate
+        System.out.printf("MIPS:           %.2f (instructions actually run)%n", (executed - skipped) / seconds / 1e6);
+        System.out.printf("Frames/sec:     %.0f (%.1fx real time)%n", framesRun / seconds, emulatedSeconds / seconds);
+        if (audio != null) {
+            System.out.printf("Audio:          %d samples, CRC32C %08x, written to %s%n",
+                    audio.samples(), audio.hash(), wav);
+        }
+        if (allocated >= 0) {
+            System.out.printf("Allocated:      %d bytes (%.2f MB/s, %.2f bytes/frame)%n",
+                    allocated, allocated / seconds / 1e6, (double) allocated / framesRun);
+        } else {
+            System.out.println("Allocated:      not supported by this JVM");
+        }
+    }
+
+
+    /**
+     * Selects the execution engine by name, decoder, cached or block
+     *
+     * @return false if the name is unknown
+     */
+    static boolean applyEngine(Config.Configuration.Builder b, String engine) {
+        switch (engine) {
+            case "decoder" -> b.decoderCache(false).blockCompiler(false);
+            case "cached" -> b.decoderCache(true).blockCompiler(false);
+            case "block" -> b.decoderCache(true).blockCompiler(true);
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    // HotSpot exposes per thread allocation counters through its own ThreadMXBean extension
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean hotspot && hotspot.isThreadAllocatedMemorySupported()) {
+            return hotspot.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,75 @@
+package pantoja.chip8;
+
+import pantoja.chip8.emulator.Machine;
+import pantoja.chip8.emulator.Movie;
+import pantoja.chip8.io.HeadlessDisplay;
+import pantoja.chip8.io.LatchedKeypad;
+import pantoja.chip8.io.SilentAudio;
+import pantoja.chip8.util.Config;
+import pantoja.chip8.util.FileIO;
+
+import java.io.IOException;
+
+/**
+ * Plays a recorded movie back headless and checks the machine ends in the recorded state. Exits with 2 when it
+ * does not, so a replay can serve as a regression test for the engines.
+ * <pre>
+ * MovieMain &lt;rom&gt; &lt;movie&gt; [--engine decoder|cached|block]
+ * </pre>
+ */
+public class MovieMain {
+    private static final String USAGE = "Usage: MovieMain <rom> <movie> [--engine decoder|cached|block]";
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && !(args.length == 4 && args[2].equals("--engine"))) {
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        String romPath = args[0];
+        String engine = (args.length == 4) ? args[3] : "cached";
+        byte[] rom = FileIO.readAllBytes(romPath);
+        Movie movie = Movie.load(args[1]);
+        if (Movie.romCrc(rom) != movie.romCrc) {
+            System.out.println("The movie was recorded with a different ROM");
+            System.exit(1);
+        }
+
+        // Everything that changes what the machine does comes from the movie, not the local settings
+        Config.Configuration.Builder b = Config.defaults().toBuilder()
+                .romPath(romPath)
+                .instructionsPerFrame(movie.instructionsPerFrame)
+                .width(movie.width)
+                .height(movie.height)
+                .profile(movie.profile)
+                .quirks(movie.quirks)
+                .wrapSprites(movie.wrapSprites);
+        if (!HeadlessMain.applyEngine(b, engine)) {
+            System.out.println("Unknown engine " + engine);
+            System.exit(1);
+        }
+
+        LatchedKeypad keypad = new LatchedKeypad();
+        Machine machine = new Machine(new HeadlessDisplay(), new SilentAudio(), keypad);
+        machine.load(b.build(), rom);
+
+        long start = System.nanoTime();
+        long executed = movie.play(machine, keypad);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int hash = machine.stateHash();
+
+        System.out.println("Frames:         " + movie.frames() + " (" + movie.keyChanges() + " key changes)");
+        System.out.println("Instructions:   " + executed);
+        long run = executed - machine.getSkippedInstructions();
+        System.out.printf("MIPS:           %.2f (instructions actually run)%n", run / seconds / 1e6);
+        if (!movie.hasFinalHash()) {
+            System.out.printf("State hash:     %08x (the recording has no end record to compare with)%n", hash);
+        } else if (hash == movie.finalHash()) {
+            System.out.printf("State hash:     %08x, matches the recording%n", hash);
+        } else {
+            System.out.printf("State hash:     %08x, the recording ended at %08x%n", hash, movie.finalHash());
+            System.exit(2);
+        }
+    }
+}
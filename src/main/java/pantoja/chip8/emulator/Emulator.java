@@ -1,108 +1,355 @@
 package pantoja.chip8.emulator;
 
-import pantoja.chip8.instructions.Chip8Executor;
-import pantoja.chip8.instructions.Decoder;
-import pantoja.chip8.memory.Chip8Bus;
-import pantoja.chip8.memory.Chip8Ram;
-import pantoja.chip8.memory.CpuState;
-import pantoja.chip8.memory.IBus;
-import pantoja.chip8.memory.IRam;
+import pantoja.chip8.io.Keypad;
+import pantoja.chip8.io.LatchedKeypad;
+import pantoja.chip8.io.SilentAudio;
 import pantoja.chip8.util.Config;
-import pantoja.chip8.ux.Keypad;
+import pantoja.chip8.util.FileIO;
 import pantoja.chip8.ux.Sound;
 import pantoja.chip8.ux.Window;
 
-import java.awt.EventQueue;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs a Machine in real time with the Swing window, sound and keypad as its display, audio and input
+ */
 public final class Emulator {
+    // Per instruction mode wakes at most this often, running several instructions per wake at high clock rates
+    private static final long MIN_INSTRUCTION_TICK_NS = 1_000_000;
+
     private final Window window;
+    private final Machine machine;
     private final Keypad keypad;
-    private final IBus bus;
-    private final IRam ram;
+    // What the CPU sees, latched from the Swing keypad once per frame
+    private final LatchedKeypad latchedKeypad = new LatchedKeypad();
+    private Rewind rewind;
+    private volatile boolean rewinding;
+    private volatile MovieRecorder recorder;
+    private boolean recordOnLoad;
+
+    // Per instruction mode: emulated time per pacer tick, and emulated time since the last timer tick
+    private int instructionsPerTick;
+    private long tickPeriodNs;
+    private long timerPeriodNs;
+    private long timerAccumulatorNs;
 
     private Sound sound;
-    private CpuState cpuState;
-    private Decoder decoder;
-    private long[] timer;
+    // The settings the current sound was built with
+    private Config.Configuration soundConfig;
 
-    ScheduledFuture<?> scheduledTick;
-    ScheduledExecutorService executor;
+    private Pacer pacer;
+    private final ExecutorService executor;
 
 
     public Emulator(Window window, Keypad keypad) {
         this.window = window;
         this.keypad = keypad;
-        this.ram = new Chip8Ram();
-        this.bus = new Chip8Bus(ram);
-        this.executor = Executors.newScheduledThreadPool(1);
+        this.machine = new Machine(window, new SilentAudio(), latchedKeypad);
+        this.executor = Executors.newSingleThreadExecutor();
     }
 
 
-    private synchronized void loadFromConfig() {
-        try {
-            Config.Configuration cfg = Config.get();
-            window.setupDisplay();
-            sound = new Sound(cfg.soundFreq, cfg.soundAmplitude);
-            ram.resetWithRom(cfg.romPath);
-            cpuState = new CpuState(cfg.romPath, sound, bus);
-            decoder = new Decoder(new Chip8Executor(cpuState, window, keypad, bus));
-        } catch (IOException e) {
-            System.out.println("Failed to load ROM config!");
-            throw new RuntimeException(e);
+    // Runs on the emulation thread, after any tick of the previous pacer has finished
+    private void loadMachine(Config.Configuration cfg) {
+        machine.load(cfg);
+        if (sound == null || !sameSound(soundConfig, cfg)) {
+            if (sound != null) {
+                sound.close();
+            }
+            sound = new Sound(cfg.soundFreq, cfg.soundAmplitude, cfg.squareWave, cfg.audioBufferMs);
+            soundConfig = cfg;
+            machine.setAudio(sound);
+        } else {
+            sound.setActive(false);
+        }
+        int rewindBytes = cfg.rewindBufferKb * 1024;
+        if (rewindBytes <= 0) {
+            rewind = null;
+        } else if (rewind != null && rewind.capacity() == rewindBytes) {
+            rewind.clear();
+        } else {
+            rewind = new Rewind(rewindBytes);
+        }
+        if (recordOnLoad) {
+            recordOnLoad = false;
+            beginRecording(cfg);
         }
     }
 
 
+    private static boolean sameSound(Config.Configuration a, Config.Configuration b) {
+        return a.soundFreq == b.soundFreq
+                && a.soundAmplitude == b.soundAmplitude
+                && a.squareWave == b.squareWave
+                && a.audioBufferMs == b.audioBufferMs;
+    }
+
+
+    /**
+     * Loads the configured ROM and starts running it. Reloading reuses the machine, window panel, sound line and
+     * rewind buffer whenever the settings they depend on haven't changed.
+     */
     public synchronized void start() {
-        if (scheduledTick != null) {
-            scheduledTick.cancel(true);
+        if (recorder != null) {
+            finishRecording();
+        }
+        stopPacer();
+        Config.Configuration cfg = Config.get();
+        // The machine is only touched from the emulation thread, a tick of the old pacer may still be running
+        try {
+            executor.submit(() -> loadMachine(cfg)).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to load " + cfg.romPath, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        window.setupDisplay(machine.getFrameBuffer());
+
+        if (cfg.frameBatched) {
+            pacer = new Pacer(executor, cfg.timerPeriodNs, this::frameLoop);
+            pacer.start();
+            return;
         }
-        loadFromConfig();
 
-        // Used to measure the 60HZ timer updates
-        timer = new long[]{
-                System.nanoTime(),  // last cpu tick time
-                0,                  // timer accumulator
-        };
+        // Timers tick after a fixed amount of emulated time rather than whenever the wall clock says so, so a late
+        // tick can't change how many instructions run between two timer ticks
+        instructionsPerTick = (int) Math.max(1, MIN_INSTRUCTION_TICK_NS / cfg.cpuPeriodNs);
+        tickPeriodNs = instructionsPerTick * cfg.cpuPeriodNs;
+        timerPeriodNs = cfg.timerPeriodNs;
+        timerAccumulatorNs = 0;
+        pacer = new Pacer(executor, tickPeriodNs, this::chip8Loop);
+        pacer.start();
+    }
+
 
-        scheduledTick = executor.scheduleAtFixedRate(
-                this::chip8Loop,
-                0,
-                Config.get().cpuPeriodNs,
-                TimeUnit.NANOSECONDS
-        );
+    private void stopPacer() {
+        if (pacer != null) {
+            pacer.stop();
+            pacer = null;
+        }
+    }
+
+
+    /**
+     * Runs once per timer tick, executing a whole frame worth of instructions back to back.
+     * A draw ends the batch early, since the display wait quirk stalls the CPU until the next tick.
+     */
+    private void frameLoop() {
+        if (rewinding && recorder == null) {
+            rewindFrame();
+            return;
+        }
+        int released = keypad.takeReleased();
+        int keys = keypad.pressedMask();
+        MovieRecorder movie = recorder;
+        if (movie != null) {
+            try {
+                movie.frame(keys, released);
+            } catch (IOException e) {
+                System.out.println("Recording stopped, unable to write: " + e.getMessage());
+                System.out.println(movie.path() + " is incomplete, it has no end record to check the replay against");
+                if (recorder == movie) {
+                    recorder = null;
+                }
+                movie.abort();
+            }
+        }
+        latchedKeypad.latch(keys, released);
+        machine.runFrame();
+        recordFrame();
     }
 
 
     private void chip8Loop() {
-        if (!cpuState.waitingForDisplay) {
-            int instruction = cpuState.fetchInstruction();
-            decoder.decode(instruction);
+        if (!rewinding) {
+            for (int i = 0; i < instructionsPerTick; i++) {
+                machine.step();
+            }
+        }
+        timerAccumulatorNs += tickPeriodNs;
+        if (timerAccumulatorNs >= timerPeriodNs) {
+            if (rewinding) {
+                rewindFrame();
+            } else {
+                machine.tickTimers();
+                recordFrame();
+                int released = keypad.takeReleased();
+                latchedKeypad.latch(keypad.pressedMask(), released);
+            }
+            timerAccumulatorNs -= timerPeriodNs;
+        }
+    }
+
+
+    private void recordFrame() {
+        if (rewind != null) {
+            rewind.push(machine);
+        }
+    }
+
+
+    // Steps one frame back per tick, so history plays in reverse at normal speed
+    private void rewindFrame() {
+        if (rewind == null) {
+            return;
+        }
+        // History includes which keys were down, but the keys the player is holding right now should stay down.
+        // Releases while rewinding belong to no frame of the history, so they are dropped.
+        keypad.takeReleased();
+        if (rewind.rewind(machine, 1)) {
+            latchedKeypad.restoreState((latchedKeypad.saveState() & ~0xFFFF) | keypad.pressedMask());
+        }
+    }
+
+
+    /**
+     * Rewinds while true, one frame per tick, and resumes normal execution from that point when set back to false
+     */
+    public void setRewinding(boolean rewinding) {
+        this.rewinding = rewinding;
+    }
+
+
+    /**
+     * Captures the machine between two ticks on the emulation thread
+     */
+    public Future<Snapshot> saveState() {
+        return executor.submit(() -> machine.snapshot());
+    }
+
+
+    /**
+     * Restores a snapshot between two ticks on the emulation thread, the window and sound stay as they are
+     */
+    public Future<?> restoreState(Snapshot snapshot) {
+        return executor.submit(() -> machine.restore(snapshot));
+    }
+
+
+    /**
+     * Saves the current state next to the ROM, as the ROM path plus .state
+     */
+    public void quickSave() {
+        String path = Config.get().romPath + ".state";
+        executor.execute(() -> {
+            try {
+                machine.snapshot().save(path);
+                System.out.println("Saved state to " + path);
+            } catch (IOException e) {
+                System.out.println("Unable to save state to " + path + ": " + e.getMessage());
+            }
+        });
+    }
+
+
+    /**
+     * Restores the state written by quickSave, if there is one
+     */
+    public void quickLoad() {
+        String path = Config.get().romPath + ".state";
+        if (recorder != null) {
+            System.out.println("Loading a state would break the recording, stop recording first");
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                machine.restore(Snapshot.load(path));
+                System.out.println("Loaded state from " + path);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Unable to load state from " + path + ": " + e.getMessage());
+            }
+        });
+    }
+
+
+    /**
+     * Starts recording input from a fresh boot of the ROM, or finishes the recording in progress. Movies are written
+     * next to the ROM, as the ROM path plus .c8m.
+     */
+    public synchronized void toggleRecording() {
+        if (recorder != null) {
+            finishRecording();
+            return;
         }
-        long now = System.nanoTime();
-        timer[1] += (now - timer[0]);
-        timer[0] = now;
-        if (timer[1] > Config.get().timerPeriodNs) {
-            cpuState.updateTimers();
-            cpuState.waitingForDisplay = false;
-            sound.audioLoop();
-            EventQueue.invokeLater(() -> window.display.repaint());
-            timer[1] -= Config.get().timerPeriodNs;
+        if (!Config.get().frameBatched) {
+            System.out.println("Recording needs frame batched execution, "
+                    + "the per instruction loop is paced by the clock");
+            return;
         }
+        recordOnLoad = true;
+        start();
+    }
 
+
+    // Called during a load, before the first frame runs
+    private void beginRecording(Config.Configuration cfg) {
+        String path = cfg.romPath + ".c8m";
+        try {
+            byte[] rom = FileIO.readAllBytes(cfg.romPath);
+            recorder = new MovieRecorder(path, machine.getRandomSeed(), Movie.romCrc(rom), cfg.frameBatchSize,
+                    cfg.width, cfg.height, cfg.wrapSprites, cfg.profile, cfg.quirks);
+            System.out.println("Recording input to " + path);
+        } catch (IOException e) {
+            System.out.println("Unable to record to " + path + ": " + e.getMessage());
+        }
+    }
+
+
+    // The end record has to hash the state right after the last recorded frame,
+    // so it is written on the emulation thread
+    private void finishRecording() {
+        MovieRecorder finished = recorder;
+        recorder = null;
+        try {
+            executor.submit(() -> {
+                finished.finish(machine.stateHash());
+                return null;
+            }).get();
+            System.out.println("Recorded " + finished.frames() + " frames");
+        } catch (ExecutionException e) {
+            System.out.println("Unable to finish the recording: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Formats the most recently executed instructions, or explains how to enable the trace
+     */
+    public String dumpTrace() {
+        return machine.dumpTrace();
+    }
+
+
+    /**
+     * Tick count and start time jitter histogram of the running pacer, and the audio underrun count
+     */
+    public synchronized String pacingReport() {
+        return (pacer != null) ? pacer.report() + audioReport() : "Not running";
     }
 
 
-    public void stop() {
-        // TODO stop sound
-        if (scheduledTick != null) {
-            scheduledTick.cancel(true);
+    private String audioReport() {
+        return (sound != null) ? String.format("Audio: %d underruns%n", sound.underruns()) : "";
+    }
+
+
+    public synchronized void stop() {
+        if (recorder != null) {
+            finishRecording();
         }
+        // Only the final report goes to stdout, restarts for a ROM or settings change stay quiet
+        if (pacer != null) {
+            System.out.print(pacingReport());
+        }
+        stopPacer();
         try {
             executor.shutdownNow();
             boolean terminated = executor.awaitTermination(1000, TimeUnit.MILLISECONDS);
@@ -112,5 +359,8 @@ public final class Emulator {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        if (sound != null) {
+            sound.close();
+        }
     }
 }
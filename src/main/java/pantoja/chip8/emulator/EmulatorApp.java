@@ -1,9 +1,10 @@
 package pantoja.chip8.emulator;
 
-import pantoja.chip8.ux.Keypad;
+import pantoja.chip8.io.Keypad;
+import pantoja.chip8.ux.IHotkeys;
 import pantoja.chip8.ux.Window;
 
-public class EmulatorApp {
+public class EmulatorApp implements IHotkeys {
 
     private final Window window;
     private final Emulator emulator;
@@ -11,13 +12,43 @@ public class EmulatorApp {
 
     public EmulatorApp() {
         Keypad keypad = new Keypad();
-        this.window = new Window(keypad, this::start);
+        this.window = new Window(keypad, this);
         this.emulator = new Emulator(window, keypad);
     }
 
 
     public void start() {
-        window.show();
         emulator.start();
+        window.show();
+    }
+
+
+    @Override
+    public void reload() {
+        start();
+    }
+
+
+    @Override
+    public void saveState() {
+        emulator.quickSave();
+    }
+
+
+    @Override
+    public void loadState() {
+        emulator.quickLoad();
+    }
+
+
+    @Override
+    public void setRewinding(boolean rewinding) {
+        emulator.setRewinding(rewinding);
+    }
+
+
+    @Override
+    public void toggleRecording() {
+        emulator.toggleRecording();
     }
 }
@@ -0,0 +1,180 @@
+package pantoja.chip8.emulator;
+
+import pantoja.chip8.io.HeadlessDisplay;
+import pantoja.chip8.io.HeadlessKeypad;
+import pantoja.chip8.io.SilentAudio;
+import pantoja.chip8.util.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many independent headless machines in one JVM, run unpaced on a fixed size work stealing pool.
+ * <p>
+ * Each machine owns its RAM, CPU state, frame buffer and decoder, only the ROM image and the font are shared.
+ * Machines run in slices of a few frames, a finished slice queues the next one for the same machine, so there is one
+ * task per machine in flight at a time and idle workers steal slices from busy ones. A machine is only ever touched
+ * by the worker running its current slice, the pool's hand off between slices is what publishes its state.
+ * <p>
+ * With a fixed randomSeed machine i is seeded with randomSeed + i, so every machine has its own random sequence and
+ * the whole fleet is still reproducible.
+ */
+public final class Fleet {
+    private final Config.Configuration cfg;
+    private final byte[] romImage;
+    private final List<Instance> instances;
+
+
+    /**
+     * Statistics for one machine, only read them once a run has returned
+     */
+    public static final class Instance {
+        private final Machine machine;
+        private long instructions;
+        private long frames;
+        private long busyNanos;
+        private RuntimeException failure;
+
+
+        private Instance(Machine machine) {
+            this.machine = machine;
+        }
+
+
+        public Machine getMachine() {
+            return machine;
+        }
+
+
+        public long getInstructions() {
+            return instructions;
+        }
+
+
+        public long getFrames() {
+            return frames;
+        }
+
+
+        /**
+         * Time spent actually running this machine, excluding time queued behind other machines
+         */
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+
+        public RuntimeException getFailure() {
+            return failure;
+        }
+    }
+
+
+    public Fleet(int size, Config.Configuration cfg, byte[] romImage) {
+        this.cfg = cfg;
+        this.romImage = romImage;
+        List<Instance> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new Instance(new Machine(new HeadlessDisplay(), new SilentAudio(), new HeadlessKeypad())));
+        }
+        this.instances = Collections.unmodifiableList(list);
+        reload();
+    }
+
+
+    /**
+     * Reloads every machine from the shared ROM image and clears the statistics
+     */
+    public void reload() {
+        for (int i = 0; i < instances.size(); i++) {
+            Instance instance = instances.get(i);
+            instance.machine.load(cfg, romImage);
+            if (cfg.randomSeed != 0) {
+                instance.machine.seedRandom(cfg.randomSeed + i);
+            }
+            instance.instructions = 0;
+            instance.frames = 0;
+            instance.busyNanos = 0;
+            instance.failure = null;
+        }
+    }
+
+
+    /**
+     * Runs every machine for the given number of frames and blocks until all of them are done
+     *
+     * @param parallelism Number of worker threads
+     * @param sliceFrames Frames a machine runs before giving its worker back to the pool
+     * @return Wall clock time of the run in nanoseconds
+     */
+    public long run(long frames, int parallelism, int sliceFrames) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        CountDownLatch done = new CountDownLatch(instances.size());
+        try {
+            long start = System.nanoTime();
+            for (Instance instance : instances) {
+                pool.execute(new Slice(pool, done, instance, frames, sliceFrames));
+            }
+            done.await();
+            return System.nanoTime() - start;
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+
+    public List<Instance> getInstances() {
+        return instances;
+    }
+
+
+    private static final class Slice implements Runnable {
+        private final ForkJoinPool pool;
+        private final CountDownLatch done;
+        private final Instance instance;
+        private final long frames;
+        private final int sliceFrames;
+
+
+        private Slice(ForkJoinPool pool, CountDownLatch done, Instance instance, long frames, int sliceFrames) {
+            this.pool = pool;
+            this.done = done;
+            this.instance = instance;
+            this.frames = frames;
+            this.sliceFrames = sliceFrames;
+        }
+
+
+        @Override
+        public void run() {
+            try {
+                long start = System.nanoTime();
+                long end = Math.min(frames, instance.frames + sliceFrames);
+                long executed = 0;
+                Machine machine = instance.machine;
+                for (long f = instance.frames; f < end; f++) {
+                    executed += machine.runFrame();
+                }
+                instance.instructions += executed;
+                instance.frames = end;
+                instance.busyNanos += System.nanoTime() - start;
+            } catch (RuntimeException e) {
+                instance.failure = e;
+                done.countDown();
+                return;
+            }
+
+            if (instance.frames < frames) {
+                // From a worker thread this lands in the worker's own queue, where idle workers can steal it
+                pool.execute(this);
+            } else {
+                done.countDown();
+            }
+        }
+    }
+}
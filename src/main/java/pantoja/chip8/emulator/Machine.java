@@ -0,0 +1,399 @@
+package pantoja.chip8.emulator;
+
+import pantoja.chip8.instructions.BlockDecoder;
+import pantoja.chip8.instructions.CachedDecoder;
+import pantoja.chip8.instructions.Chip8Executor;
+import pantoja.chip8.instructions.Decoder;
+import pantoja.chip8.instructions.ExecutionTrace;
+import pantoja.chip8.instructions.IDecoder;
+import pantoja.chip8.io.IAudio;
+import pantoja.chip8.io.IDisplay;
+import pantoja.chip8.io.IKeypad;
+import pantoja.chip8.memory.Chip8Bus;
+import pantoja.chip8.memory.Chip8Ram;
+import pantoja.chip8.memory.CpuState;
+import pantoja.chip8.memory.FrameBuffer;
+import pantoja.chip8.memory.IBus;
+import pantoja.chip8.memory.IRam;
+import pantoja.chip8.util.Config;
+import pantoja.chip8.util.IRandom;
+import pantoja.chip8.util.XorShiftRandom;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32C;
+
+/**
+ * The CHIP-8 machine itself: memory, CPU state, frame buffer, decoder and timers. It only talks to the outside
+ * world through IDisplay, IAudio and IKeypad, so it runs the same with a Swing window or with no display at all.
+ * <p>
+ * Nothing here paces itself, callers decide when to run a frame (the Emulator on a wall clock, headless tools as
+ * fast as they like).
+ */
+public final class Machine {
+    private final IDisplay display;
+    private final IKeypad keypad;
+    private final IRandom random;
+
+    // Replaced only when a profile needs a different memory size
+    private IRam ram;
+    private IBus bus;
+
+    private IAudio audio;
+    private CpuState cpuState;
+    private FrameBuffer frameBuffer;
+    private Chip8Executor executor;
+    private IDecoder decoder;
+    private boolean blockCompiler;
+    private boolean decoderCache;
+    private int frameBatchSize;
+    private boolean skipIdleLoops;
+    private long skippedInstructions;
+    private long randomSeed;
+
+
+    public Machine(IDisplay display, IAudio audio, IKeypad keypad) {
+        this(display, audio, keypad, new XorShiftRandom(0));
+    }
+
+
+    /**
+     * @param random Source for CXNN, reseeded on every load. Must not be shared with another machine.
+     */
+    public Machine(IDisplay display, IAudio audio, IKeypad keypad, IRandom random) {
+        this.display = display;
+        this.audio = audio;
+        this.keypad = keypad;
+        this.random = random;
+        this.ram = new Chip8Ram();
+        this.bus = new Chip8Bus(ram);
+    }
+
+
+    /**
+     * Resets the machine and loads the ROM and execution settings from the given configuration. When the display
+     * size and decoder are the same as for the previous load the machine is reset in place, reusing its memory,
+     * frame buffer and decoder.
+     */
+    public void load(Config.Configuration cfg) {
+        sizeMemory(cfg);
+        ram.resetWithRom(cfg.romPath);
+        reset(cfg);
+    }
+
+
+    /**
+     * Same as load, but with a ROM image that was read once up front instead of reading cfg.romPath
+     */
+    public void load(Config.Configuration cfg, byte[] romImage) {
+        sizeMemory(cfg);
+        ram.resetWithImage(romImage);
+        reset(cfg);
+    }
+
+
+    /**
+     * Runs one frame worth of instructions, then ticks the timers
+     *
+     * @return The number of instructions executed
+     */
+    public int runFrame() {
+        if (cpuState.halted) {
+            // 00FD stopped the program, only the timers and the display carry on
+            tickTimers();
+            return 0;
+        }
+        if (cpuState.waitingForKey && !resumeFromKeyWait()) {
+            // Parked on Fx0A, every instruction of the frame would have polled the same frozen keys again
+            skippedInstructions += frameBatchSize;
+            tickTimers();
+            return frameBatchSize;
+        }
+
+        executor.detectIdleLoops(skipIdleLoops);
+        int executed = decoder.run(cpuState, frameBatchSize);
+        while (cpuState.endBatch) {
+            cpuState.endBatch = false;
+            if (cpuState.halted) {
+                break;
+            }
+            int remaining = frameBatchSize - executed;
+            if (cpuState.waitingForKey) {
+                skippedInstructions += remaining;
+                executed += remaining;
+                break;
+            }
+            // The loop repeats exactly until the timers tick, so whole laps are skipped and only the partial lap
+            // that ends the frame is run, leaving the CPU exactly where running every instruction would have
+            int loop = executor.idleLoopLength();
+            int skipped = remaining - remaining % loop;
+            skippedInstructions += skipped;
+            executed += skipped;
+            executed += decoder.run(cpuState, remaining - skipped);
+        }
+        executor.detectIdleLoops(false);
+        tickTimers();
+        return executed;
+    }
+
+
+    // Unparks the CPU from Fx0A when the keypad has a release for it, the Fx0A then runs again and takes the key
+    private boolean resumeFromKeyWait() {
+        if (!keypad.keyReleasePending()) {
+            return false;
+        }
+        cpuState.waitingForKey = false;
+        return true;
+    }
+
+
+    /**
+     * Instructions counted as executed by runFrame without running them, because they were laps of an idle loop or
+     * repeats of an Fx0A still waiting for a key
+     */
+    public long getSkippedInstructions() {
+        return skippedInstructions;
+    }
+
+
+    /**
+     * Executes a single instruction, unless the CPU is stalled waiting for the display or halted
+     */
+    public void step() {
+        if (cpuState.halted || cpuState.waitingForDisplay || (cpuState.waitingForKey && !resumeFromKeyWait())) {
+            return;
+        }
+        decoder.step(cpuState);
+        cpuState.endBatch = false;
+    }
+
+
+    /**
+     * The 60Hz tick: timers count down, the display wait ends, audio and display get the new frame
+     */
+    public void tickTimers() {
+        cpuState.updateTimers();
+        cpuState.waitingForDisplay = false;
+        if (cpuState.audioChanged) {
+            updatePattern();
+        }
+        audio.setActive(cpuState.isSoundOn());
+        audio.update();
+        display.frameReady(frameBuffer);
+    }
+
+
+    private void updatePattern() {
+        cpuState.audioChanged = false;
+        if (cpuState.patternLoaded) {
+            audio.setPattern(cpuState.audioPatternHigh, cpuState.audioPatternLow, cpuState.pitch);
+        } else {
+            audio.clearPattern();
+        }
+    }
+
+
+    /**
+     * Captures the whole machine into a new snapshot
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(ram.size(), frameBuffer.width(), frameBuffer.height(),
+                frameBuffer.planes(), frameBuffer.snapshotBytes());
+        snapshot(snapshot);
+        return snapshot;
+    }
+
+
+    /**
+     * Captures the whole machine into an existing snapshot, overwriting it without allocating
+     */
+    public void snapshot(Snapshot into) {
+        requireCompatible(into);
+        ByteBuffer out = into.body();
+        cpuState.save(out);
+        out.putLong(random.state());
+        out.putInt(keypad.saveState());
+        ram.save(out);
+        frameBuffer.save(out);
+    }
+
+
+    /**
+     * Puts the machine back in the captured state. Must run on the thread that runs the machine.
+     */
+    public void restore(Snapshot from) {
+        requireCompatible(from);
+        ByteBuffer in = from.body();
+        cpuState.restore(in);
+        random.restoreState(in.getLong());
+        keypad.restoreState(in.getInt());
+        ram.restore(in);
+        frameBuffer.restore(in);
+
+        // Memory was replaced behind the bus, anything decoded from the old contents is stale
+        decoder.invalidateAll();
+        updatePattern();
+        audio.setActive(cpuState.isSoundOn());
+        display.frameReady(frameBuffer);
+    }
+
+
+    /**
+     * Seeds the random number generator, together with the same inputs this makes a run repeatable
+     */
+    public void seedRandom(long seed) {
+        randomSeed = seed;
+        random.seed(seed);
+    }
+
+
+    /**
+     * The seed the random sequence of the current run started from
+     */
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+
+    /**
+     * CRC32C of the full snapshot, for checking that two runs ended in the same state
+     */
+    public int stateHash() {
+        CRC32C crc = new CRC32C();
+        crc.update(snapshot().toBytes());
+        return (int) crc.getValue();
+    }
+
+
+    public void setAudio(IAudio audio) {
+        this.audio = audio;
+        if (cpuState != null) {
+            cpuState.audioChanged = true;
+        }
+    }
+
+
+    public CpuState getCpuState() {
+        return cpuState;
+    }
+
+
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+
+    public IBus getBus() {
+        return bus;
+    }
+
+
+    /**
+     * Formats the most recently executed instructions, or explains how to enable the trace
+     */
+    public String dumpTrace() {
+        ExecutionTrace trace = (executor != null) ? executor.getTrace() : null;
+        if (trace == null) {
+            return "Execution trace is disabled, set traceCapacity to enable it";
+        }
+        return trace.getTraceWindow();
+    }
+
+
+    // Decoders that listen to the bus must let go of it, the bus outlives them across reloads
+    private void detachDecoder() {
+        if (decoder != null) {
+            decoder.detach();
+        }
+    }
+
+
+    /**
+     * Whether the snapshot is for this machine's RAM size, display resolution and plane count
+     */
+    public boolean fits(Snapshot snapshot) {
+        return snapshot.ramSize() == ram.size()
+                && snapshot.width() == frameBuffer.width()
+                && snapshot.height() == frameBuffer.height()
+                && snapshot.planes() == frameBuffer.planes();
+    }
+
+
+    private void requireCompatible(Snapshot snapshot) {
+        if (!fits(snapshot)) {
+            throw new IllegalArgumentException(String.format(
+                    "Snapshot is for %d bytes of RAM and a %dx%d display with %d planes, machine has %d bytes and "
+                            + "%dx%d with %d",
+                    snapshot.ramSize(), snapshot.width(), snapshot.height(), snapshot.planes(),
+                    ram.size(), frameBuffer.width(), frameBuffer.height(), frameBuffer.planes()));
+        }
+    }
+
+
+    // XO-CHIP has 64 KB, anything built on the old bus is rebuilt by reset
+    private void sizeMemory(Config.Configuration cfg) {
+        if (ram.size() != cfg.profile.memorySize) {
+            ram = new Chip8Ram(cfg.profile.memorySize);
+            bus = new Chip8Bus(ram);
+        }
+    }
+
+
+    private void reset(Config.Configuration cfg) {
+        keypad.restoreState(0);
+        if (canResetInPlace(cfg)) {
+            // Same display and decoder as last time, so everything is reused and a ROM switch allocates nothing
+            cpuState.reset();
+            frameBuffer.clear();
+            decoder.invalidateAll();
+        } else {
+            build(cfg);
+        }
+        executor.setProfile(cfg.profile, cfg.quirks);
+        decoder.setQuirks(cfg.quirks);
+        ExecutionTrace trace = executor.getTrace();
+        if (cfg.traceCapacity <= 0) {
+            executor.setTrace(null);
+        } else if (trace != null && trace.capacity() >= cfg.traceCapacity && trace.capacity() < 2 * cfg.traceCapacity) {
+            // Capacity is rounded up to a power of two, so this is the size a new trace would have
+            trace.clear();
+        } else {
+            executor.setTrace(new ExecutionTrace(cfg.traceCapacity));
+        }
+
+        frameBatchSize = cfg.frameBatchSize;
+        skipIdleLoops = cfg.skipIdleLoops;
+        skippedInstructions = 0;
+        seedRandom((cfg.randomSeed != 0) ? cfg.randomSeed : ThreadLocalRandom.current().nextLong());
+    }
+
+
+    private boolean canResetInPlace(Config.Configuration cfg) {
+        return frameBuffer != null
+                && frameBuffer.width() == cfg.displayWidth
+                && frameBuffer.height() == cfg.displayHeight
+                && frameBuffer.wraps() == cfg.wrapSprites
+                && frameBuffer.planes() == cfg.profile.planes
+                && cpuState.bus() == bus
+                && blockCompiler == cfg.blockCompiler
+                && decoderCache == cfg.decoderCache;
+    }
+
+
+    private void build(Config.Configuration cfg) {
+        cpuState = new CpuState(bus);
+        frameBuffer = new FrameBuffer(cfg.displayWidth, cfg.displayHeight, cfg.wrapSprites, cfg.profile.planes);
+        executor = new Chip8Executor(cpuState, frameBuffer, keypad, bus, random);
+
+        detachDecoder();
+        if (cfg.blockCompiler) {
+            decoder = new BlockDecoder(executor, bus);
+        } else if (cfg.decoderCache) {
+            decoder = new CachedDecoder(executor, bus);
+        } else {
+            decoder = new Decoder(executor);
+        }
+        blockCompiler = cfg.blockCompiler;
+        decoderCache = cfg.decoderCache;
+    }
+}
@@ -0,0 +1,196 @@
+package pantoja.chip8.emulator;
+
+import pantoja.chip8.io.LatchedKeypad;
+import pantoja.chip8.util.FileIO;
+import pantoja.chip8.util.Profile;
+import pantoja.chip8.util.Quirks;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * A recorded run: the settings that decide how the machine behaves, the random seed and every frame whose latched key
+ * mask changed or that saw keys released, stamped with the frame. Written by MovieRecorder.
+ * <pre>
+ * 0   magic "C8MV"
+ * 4   u16 format version
+ * 6   u16 flags, bit 0 wrapSprites, bits 1-5 quirks, bits 8-11 profile ordinal
+ * 8   s64 random seed
+ * 16  u32 CRC32C of the ROM
+ * 20  u32 instructions per frame
+ * 24  u16 display width, u16 display height
+ * 28  records, each a tag byte
+ *     1 key change: varint frames since the previous record, u16 key mask, u16 released keys,
+ *                   u8 latest released key plus one
+ *     2 end:        varint frames since the previous record, u32 state hash after the last frame
+ * </pre>
+ * A recording that was cut off before its end record still plays back, there is just no hash to verify.
+ */
+public final class Movie {
+    static final int MAGIC = 0x43384D56; // "C8MV"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 28;
+    static final int KEY_CHANGE = 1;
+    static final int END = 2;
+
+    public final boolean wrapSprites;
+    public final Profile profile;
+    public final int quirks;
+    public final long seed;
+    public final int romCrc;
+    public final int instructionsPerFrame;
+    public final int width;
+    public final int height;
+
+    private final long[] eventFrames;
+    private final int[] eventMasks;
+    private final int[] eventReleased;
+    private final long endFrame;
+    private final boolean hasEnd;
+    private final int finalHash;
+
+
+    private Movie(ByteBuffer in) {
+        if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a CHIP-8 movie");
+        }
+        int version = in.getShort() & 0xFFFF;
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported movie version " + version);
+        }
+        int flags = in.getShort() & 0xFFFF;
+        wrapSprites = (flags & 1) != 0;
+        int ordinal = (flags >> 8) & 0xF;
+        if (ordinal >= Profile.values().length) {
+            throw new IllegalArgumentException("Unknown profile " + ordinal + " in movie");
+        }
+        profile = Profile.values()[ordinal];
+        quirks = (flags >> 1) & Quirks.ALL;
+        seed = in.getLong();
+        romCrc = in.getInt();
+        instructionsPerFrame = in.getInt();
+        width = in.getShort() & 0xFFFF;
+        height = in.getShort() & 0xFFFF;
+
+        long[] frames = new long[64];
+        int[] masks = new int[64];
+        int[] releases = new int[64];
+        int events = 0;
+        long frame = 0;
+        long end = 0;
+        boolean ended = false;
+        int hash = 0;
+        try {
+            while (in.hasRemaining() && !ended) {
+                int tag = in.get();
+                frame += readVarint(in);
+                if (tag == KEY_CHANGE) {
+                    if (events == frames.length) {
+                        frames = Arrays.copyOf(frames, events * 2);
+                        masks = Arrays.copyOf(masks, events * 2);
+                        releases = Arrays.copyOf(releases, events * 2);
+                    }
+                    frames[events] = frame;
+                    masks[events] = in.getShort() & 0xFFFF;
+                    int released = in.getShort() & 0xFFFF;
+                    releases[events] = released | ((in.get() & 0x1F) << 16);
+                    events++;
+                    end = frame;
+                } else if (tag == END) {
+                    hash = in.getInt();
+                    end = frame;
+                    ended = true;
+                } else {
+                    throw new IllegalArgumentException("Corrupt movie, unknown record " + tag);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            // A recording interrupted mid write, keep the complete records
+            System.out.println("Movie ends in a partial record, playing the complete ones");
+        }
+
+        eventFrames = Arrays.copyOf(frames, events);
+        eventMasks = Arrays.copyOf(masks, events);
+        eventReleased = Arrays.copyOf(releases, events);
+        endFrame = end;
+        hasEnd = ended;
+        finalHash = hash;
+    }
+
+
+    public static Movie load(String path) throws IOException {
+        return new Movie(ByteBuffer.wrap(FileIO.readAllBytes(path)));
+    }
+
+
+    public static int romCrc(byte[] rom) {
+        CRC32C crc = new CRC32C();
+        crc.update(rom);
+        return (int) crc.getValue();
+    }
+
+
+    /**
+     * Number of frames the recording ran for
+     */
+    public long frames() {
+        return endFrame;
+    }
+
+
+    public int keyChanges() {
+        return eventFrames.length;
+    }
+
+
+    /**
+     * false if the recording never reached its end record, in which case there is no hash to check
+     */
+    public boolean hasFinalHash() {
+        return hasEnd;
+    }
+
+
+    public int finalHash() {
+        return finalHash;
+    }
+
+
+    /**
+     * Plays the recorded input into a machine already loaded with the movie's ROM and settings, as fast as possible.
+     * The keypad must be the one the machine was built with.
+     *
+     * @return The number of instructions executed
+     */
+    public long play(Machine machine, LatchedKeypad keypad) {
+        machine.seedRandom(seed);
+        long executed = 0;
+        int next = 0;
+        int mask = 0;
+        for (long frame = 0; frame < endFrame; frame++) {
+            int released = 0;
+            if (next < eventFrames.length && eventFrames[next] == frame) {
+                mask = eventMasks[next];
+                released = eventReleased[next++];
+            }
+            keypad.latch(mask, released);
+            executed += machine.runFrame();
+        }
+        return executed;
+    }
+
+
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
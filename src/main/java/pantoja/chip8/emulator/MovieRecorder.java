@@ -0,0 +1,139 @@
+package pantoja.chip8.emulator;
+
+import pantoja.chip8.util.Profile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends a Movie to a file as it is being played. Each record is written as soon as it happens, so a crash loses
+ * at most the end record. Call frame once per frame, before it runs, with what is about to be latched.
+ */
+public final class MovieRecorder implements AutoCloseable {
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocate(16);
+    private long frame;
+    private long lastRecordFrame;
+    private int lastMask;
+
+
+    public MovieRecorder(
+            String path,
+            long seed,
+            int romCrc,
+            int instructionsPerFrame,
+            int width,
+            int height,
+            boolean wrapSprites,
+            Profile profile,
+            int quirks
+    ) throws IOException {
+        this.path = Path.of(path);
+        Path parent = this.path.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(
+                this.path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        );
+
+        ByteBuffer header = ByteBuffer.allocate(Movie.HEADER_BYTES);
+        header.putInt(Movie.MAGIC);
+        header.putShort((short) Movie.FORMAT_VERSION);
+        header.putShort((short) ((wrapSprites ? 1 : 0) | (quirks << 1) | (profile.ordinal() << 8)));
+        header.putLong(seed);
+        header.putInt(romCrc);
+        header.putInt(instructionsPerFrame);
+        header.putShort((short) width);
+        header.putShort((short) height);
+        write(header.flip());
+    }
+
+
+    /**
+     * Notes the key mask and releases for the frame about to run, only frames where either changes are written
+     */
+    public void frame(int mask, int released) throws IOException {
+        if (mask != lastMask || released != 0) {
+            record.clear();
+            record.put((byte) Movie.KEY_CHANGE);
+            putVarint(record, frame - lastRecordFrame);
+            record.putShort((short) mask);
+            record.putShort((short) released);
+            record.put((byte) (released >>> 16));
+            write(record.flip());
+            lastRecordFrame = frame;
+            lastMask = mask;
+        }
+        frame++;
+    }
+
+
+    /**
+     * Writes the end record with the hash of the state after the last recorded frame and closes the file
+     */
+    public void finish(int stateHash) throws IOException {
+        try {
+            record.clear();
+            record.put((byte) Movie.END);
+            putVarint(record, frame - lastRecordFrame);
+            record.putInt(stateHash);
+            write(record.flip());
+        } finally {
+            close();
+        }
+    }
+
+
+    /**
+     * Closes the file without an end record after a failed write. What was written so far still plays back, as a
+     * recording that was cut off.
+     */
+    public void abort() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already failing, the caller reports the write error
+        }
+    }
+
+
+    public Path path() {
+        return path;
+    }
+
+
+    public long frames() {
+        return frame;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+
+    private static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
@@ -0,0 +1,178 @@
+package pantoja.chip8.emulator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a tick at a fixed period on a single thread executor, holding each tick until its deadline.
+ * <p>
+ * Waiting is done in three steps: sleep while the deadline is far enough away that sleep overshooting doesn't
+ * matter, park until just before the deadline, early by the measured park overshoot, then spin the few
+ * microseconds that are left. Each tick queues the next one on the executor, so other work submitted to it (saving
+ * state, finishing a recording) runs between ticks.
+ * <p>
+ * When a stall (GC, dragging the window) leaves the pacer more than a few periods behind, the missed ticks are
+ * dropped instead of run back to back, so the machine pauses rather than fast forwarding. How late each tick
+ * started is kept in a histogram of power of two microsecond buckets.
+ */
+public final class Pacer {
+    // Sleep can overshoot by a scheduler quantum, stop sleeping this far out
+    private static final long SLEEP_MARGIN_NS = 2_000_000;
+    // Parking wakes up tens of microseconds late (timer slack), the spin only has to cover the variation in that
+    private static final long MIN_SPIN_NS = 10_000;
+    private static final long MAX_OVERSHOOT_NS = 500_000;
+    private static final long MIN_CATCH_UP_NS = 20_000_000;
+    // Bucket 0 is under 1us, bucket b is [2^(b-1), 2^b) us and the last bucket takes everything longer
+    private static final int BUCKETS = 18;
+
+    private final Executor executor;
+    private final long periodNs;
+    private final long maxCatchUpNs;
+    private final Runnable tick;
+    private final AtomicLongArray lateness = new AtomicLongArray(BUCKETS);
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong maxLatenessNs = new AtomicLong();
+    private volatile boolean running;
+    // Only touched by the ticks themselves
+    private long deadline;
+    // Running average of how late parkNanos returns
+    private long parkOvershootNs = 50_000;
+
+
+    public Pacer(Executor executor, long periodNs, Runnable tick) {
+        this.executor = executor;
+        this.periodNs = periodNs;
+        this.tick = tick;
+        this.maxCatchUpNs = Math.max(2 * periodNs, MIN_CATCH_UP_NS);
+    }
+
+
+    public void start() {
+        running = true;
+        deadline = System.nanoTime();
+        executor.execute(this::runTick);
+    }
+
+
+    /**
+     * No tick starts after this returns, though one that already started runs to completion
+     */
+    public void stop() {
+        running = false;
+    }
+
+
+    public long ticks() {
+        return ticks.get();
+    }
+
+
+    /**
+     * Ticks skipped because the pacer fell too far behind
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+
+    /**
+     * Number of ticks that started late by an amount in the given bucket
+     */
+    public long lateness(int bucket) {
+        return lateness.get(bucket);
+    }
+
+
+    /**
+     * Tick count, drops and the lateness histogram, as text
+     */
+    public String report() {
+        long total = ticks.get();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Pacing: %d ticks at %.3f ms, %d dropped after stalls, latest start %.3f ms%n",
+                total, periodNs / 1e6, dropped.get(), maxLatenessNs.get() / 1e6));
+        if (total == 0) {
+            return sb.toString();
+        }
+        for (int b = 0; b < BUCKETS; b++) {
+            long count = lateness.get(b);
+            if (count == 0) {
+                continue;
+            }
+            String range = (b == 0) ? "< 1us"
+                    : (b == BUCKETS - 1) ? ">= " + (1L << (b - 1)) + "us"
+                    : (1L << (b - 1)) + "-" + (1L << b) + "us";
+            sb.append(String.format("  %-16s %10d  %5.1f%%%n", range, count, 100.0 * count / total));
+        }
+        return sb.toString();
+    }
+
+
+    private void runTick() {
+        if (!running || !waitUntil(deadline) || !running) {
+            return;
+        }
+
+        long late = System.nanoTime() - deadline;
+        record(late);
+        if (late > maxCatchUpNs) {
+            long missed = late / periodNs;
+            dropped.addAndGet(missed);
+            deadline += missed * periodNs;
+        }
+
+        tick.run();
+        deadline += periodNs;
+        try {
+            executor.execute(this::runTick);
+        } catch (RejectedExecutionException e) {
+            // Executor shut down
+            running = false;
+        }
+    }
+
+
+    // false if interrupted, which only happens when the executor is shut down
+    private boolean waitUntil(long target) {
+        long remaining;
+        while ((remaining = target - System.nanoTime()) > SLEEP_MARGIN_NS) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining - SLEEP_MARGIN_NS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        // Park to where the wake up, late by the usual overshoot, lands just short of the target
+        while ((remaining = target - System.nanoTime()) > parkOvershootNs + MIN_SPIN_NS) {
+            long wakeAt = target - parkOvershootNs;
+            LockSupport.parkNanos(wakeAt - System.nanoTime());
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            long overshoot = System.nanoTime() - wakeAt;
+            if (overshoot > 0) {
+                parkOvershootNs += (Math.min(overshoot, MAX_OVERSHOOT_NS) - parkOvershootNs) >> 3;
+            }
+        }
+        while (target - System.nanoTime() > 0) {
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+
+    private void record(long lateNs) {
+        ticks.incrementAndGet();
+        maxLatenessNs.accumulateAndGet(lateNs, Math::max);
+        long micros = lateNs / 1000;
+        int bucket = (micros <= 0) ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        lateness.incrementAndGet(bucket);
+    }
+}
@@ -0,0 +1,296 @@
+package pantoja.chip8.emulator;
+
+import java.util.Arrays;
+
+/**
+ * Per frame history of a machine for rewinding, kept within a fixed memory budget.
+ * <p>
+ * Every frame stores the XOR of its snapshot with the previous frame's, run length encoded so the bytes that did
+ * not change (nearly all of RAM) cost almost nothing. XOR works in both directions, applying a frame's delta to its
+ * state gives back the frame before it, so stepping back is one decode no matter how long the history is. Every
+ * KEYFRAME_INTERVAL frames a full encoded state is stored as well, which bounds the work of jumping back many
+ * frames at once.
+ * <p>
+ * Records are packed one after another into a circular byte arena, when it fills up the oldest frames are dropped.
+ * Not thread safe, push and rewind from the thread that runs the machine.
+ */
+public final class Rewind {
+    private static final int MAX_FRAMES = 1 << 16;
+    private static final int FRAME_MASK = MAX_FRAMES - 1;
+    private static final int KEYFRAME_INTERVAL = 60;
+
+    private final byte[] arena;
+    // Per record: where it starts in the arena, its delta length and its keyframe length (0 when it has none)
+    private final int[] offsets = new int[MAX_FRAMES];
+    private final int[] deltaLengths = new int[MAX_FRAMES];
+    private final int[] keyLengths = new int[MAX_FRAMES];
+    private int oldest;
+    private int count;
+    private int head;
+    private int bytesUsed;
+    private long pushed;
+    // Set when a single keyframe is larger than the arena, nothing is recorded until the next clear
+    private boolean tooSmall;
+
+    // State of the newest record, and a scratch snapshot for the next one
+    private Snapshot newest;
+    private Snapshot next;
+    private byte[] encoded;
+    private byte[] zeros;
+
+
+    /**
+     * @param budgetBytes Size of the history arena, the only memory that grows with the length of history
+     */
+    public Rewind(int budgetBytes) {
+        this.arena = new byte[budgetBytes];
+    }
+
+
+    /**
+     * Records the machine's current state as the newest frame
+     */
+    public void push(Machine machine) {
+        if (newest != null && !machine.fits(newest)) {
+            // A load with another profile changed the snapshot size, the old history can't be applied to it
+            clear();
+        }
+        if (tooSmall) {
+            return;
+        }
+        if (newest == null || count == 0) {
+            start(machine);
+            return;
+        }
+
+        machine.snapshot(next);
+        byte[] previous = newest.toBytes();
+        byte[] current = next.toBytes();
+        int deltaLength = encode(previous, current, encoded, 0);
+        int keyLength = (pushed % KEYFRAME_INTERVAL == 0) ? encode(zeros, current, encoded, deltaLength) : 0;
+        if (!store(deltaLength, keyLength)) {
+            clear();
+            return;
+        }
+
+        Snapshot swap = newest;
+        newest = next;
+        next = swap;
+        pushed++;
+    }
+
+
+    /**
+     * Moves the machine back up to the given number of frames, dropping them from the history
+     *
+     * @return false if there was no older frame to go back to
+     */
+    public boolean rewind(Machine machine, int frames) {
+        int steps = Math.min(frames, count - 1);
+        if (steps <= 0) {
+            return false;
+        }
+        byte[] state = newest.toBytes();
+        int target = count - 1 - steps;
+
+        // Far jumps start from the first keyframe at or after the target instead of walking every frame back
+        int from = count - 1;
+        if (steps > KEYFRAME_INTERVAL) {
+            for (int p = target; p < from; p++) {
+                int index = indexOf(p);
+                if (keyLengths[index] > 0) {
+                    Arrays.fill(state, (byte) 0);
+                    decode(offsets[index] + deltaLengths[index], keyLengths[index], state);
+                    from = p;
+                    break;
+                }
+            }
+        }
+        for (int p = from; p > target; p--) {
+            int index = indexOf(p);
+            decode(offsets[index], deltaLengths[index], state);
+        }
+
+        // The dropped records were the last ones written, so their space is reused next
+        int firstDropped = indexOf(target + 1);
+        head = offsets[firstDropped];
+        for (int p = target + 1; p < count; p++) {
+            int index = indexOf(p);
+            bytesUsed -= deltaLengths[index] + keyLengths[index];
+        }
+        count = target + 1;
+        pushed = target + 1;
+
+        machine.restore(newest);
+        return true;
+    }
+
+
+    public void clear() {
+        count = 0;
+        oldest = 0;
+        head = 0;
+        bytesUsed = 0;
+        pushed = 0;
+        tooSmall = false;
+    }
+
+
+    /**
+     * Number of frames that can be stepped back
+     */
+    public int frames() {
+        return Math.max(0, count - 1);
+    }
+
+
+    /**
+     * Size of the history arena in bytes
+     */
+    public int capacity() {
+        return arena.length;
+    }
+
+
+    public int bytesUsed() {
+        return bytesUsed;
+    }
+
+
+    // First frame after a clear or a snapshot size change, stored as a keyframe only
+    private void start(Machine machine) {
+        clear();
+        if (newest == null || !machine.fits(newest)) {
+            newest = machine.snapshot();
+            next = machine.snapshot();
+        } else {
+            machine.snapshot(newest);
+        }
+        int size = newest.toBytes().length;
+        if (zeros == null || zeros.length != size) {
+            zeros = new byte[size];
+            // Worst case is alternating changed and unchanged bytes, 3 bytes for every 2, for the delta and the key
+            encoded = new byte[4 * size + 32];
+        }
+        int keyLength = encode(zeros, newest.toBytes(), encoded, 0);
+        if (store(0, keyLength)) {
+            pushed = 1;
+        } else {
+            tooSmall = true;
+            System.out.println("Rewind disabled, a " + keyLength + " byte keyframe doesn't fit the "
+                    + arena.length + " byte rewind buffer");
+        }
+    }
+
+
+    private boolean store(int deltaLength, int keyLength) {
+        int length = deltaLength + keyLength;
+        if (length > arena.length) {
+            return false;
+        }
+
+        int position = head;
+        if (position + length > arena.length) {
+            // The records between here and the end of the arena are the oldest, the write continues from 0
+            while (count > 0 && offsets[oldest] >= position) {
+                evictOldest();
+            }
+            position = 0;
+        }
+        while (count > 0 && (count == MAX_FRAMES
+                || (offsets[oldest] >= position && offsets[oldest] < position + length))) {
+            evictOldest();
+        }
+
+        int index = indexOf(count);
+        System.arraycopy(encoded, 0, arena, position, length);
+        offsets[index] = position;
+        deltaLengths[index] = deltaLength;
+        keyLengths[index] = keyLength;
+        count++;
+        head = position + length;
+        bytesUsed += length;
+        return true;
+    }
+
+
+    private void evictOldest() {
+        bytesUsed -= deltaLengths[oldest] + keyLengths[oldest];
+        oldest = (oldest + 1) & FRAME_MASK;
+        count--;
+        if (count == 0) {
+            oldest = 0;
+        }
+    }
+
+
+    private int indexOf(int position) {
+        return (oldest + position) & FRAME_MASK;
+    }
+
+
+    /**
+     * Encodes a XOR b as pairs of (unchanged run, changed run) lengths, each changed run followed by its XOR bytes.
+     * Lengths are 7 bit varints.
+     *
+     * @return The number of bytes written to out at offset
+     */
+    private static int encode(byte[] a, byte[] b, byte[] out, int offset) {
+        int length = a.length;
+        int o = offset;
+        int i = 0;
+        while (i < length) {
+            int mismatch = Arrays.mismatch(a, i, length, b, i, length);
+            int same = (mismatch < 0) ? length - i : mismatch;
+            int changedStart = i + same;
+            int changedEnd = changedStart;
+            while (changedEnd < length && a[changedEnd] != b[changedEnd]) {
+                changedEnd++;
+            }
+
+            o = writeVarint(out, o, same);
+            o = writeVarint(out, o, changedEnd - changedStart);
+            for (int j = changedStart; j < changedEnd; j++) {
+                out[o++] = (byte) (a[j] ^ b[j]);
+            }
+            i = changedEnd;
+        }
+        return o - offset;
+    }
+
+
+    // XORs an encoded record starting at offset in the arena into state
+    private void decode(int offset, int length, byte[] state) {
+        int end = offset + length;
+        int o = offset;
+        int i = 0;
+        while (o < end) {
+            int same = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = arena[o++];
+                same |= (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            int changed = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = arena[o++];
+                changed |= (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            i += same;
+            for (int j = 0; j < changed; j++) {
+                state[i++] ^= arena[o++];
+            }
+        }
+    }
+
+
+    private static int writeVarint(byte[] out, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[offset++] = (byte) value;
+        return offset;
+    }
+}
@@ -0,0 +1,118 @@
+package pantoja.chip8.emulator;
+
+import pantoja.chip8.memory.CpuState;
+import pantoja.chip8.util.FileIO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A saved machine state in its binary file format, so saving to disk is a single write.
+ * <pre>
+ * 0   magic "C8SS"
+ * 4   u16 format version
+ * 6   u16 display width, u16 display height
+ * 10  u32 RAM size
+ * 14  u16 frame buffer planes
+ * 16  CPU block, see CpuState.save
+ *     u64 random generator state
+ *     u32 keypad state
+ *     RAM
+ *     frame buffer rows plane after plane, one big endian long per 64 pixels
+ * </pre>
+ * Snapshots are only compatible with machines of the same RAM size, display resolution and plane count. Taking one
+ * into an existing Snapshot is a few bulk copies with no allocation, cheap enough to do every frame.
+ */
+public final class Snapshot {
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x43385353; // "C8SS"
+    private static final int HEADER_BYTES = 16;
+
+    private final ByteBuffer buffer;
+
+
+    Snapshot(int ramSize, int width, int height, int planes, int frameBufferBytes) {
+        int size = HEADER_BYTES + CpuState.SNAPSHOT_BYTES + Long.BYTES + Integer.BYTES + ramSize + frameBufferBytes;
+        buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) FORMAT_VERSION);
+        buffer.putShort((short) width);
+        buffer.putShort((short) height);
+        buffer.putInt(ramSize);
+        buffer.putShort((short) planes);
+    }
+
+
+    private Snapshot(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * Wraps bytes produced by toBytes or read from a snapshot file, checking the header
+     */
+    public static Snapshot fromBytes(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a CHIP-8 snapshot");
+        }
+        int version = buffer.getShort(4) & 0xFFFF;
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + version);
+        }
+
+        Snapshot snapshot = new Snapshot(buffer);
+        int wordsPerRow = (snapshot.width() + 63) >>> 6;
+        int expected = HEADER_BYTES + CpuState.SNAPSHOT_BYTES + Long.BYTES + Integer.BYTES + snapshot.ramSize()
+                + wordsPerRow * snapshot.height() * snapshot.planes() * Long.BYTES;
+        if (data.length != expected) {
+            throw new IllegalArgumentException("Snapshot is " + data.length + " bytes, expected " + expected);
+        }
+        return snapshot;
+    }
+
+
+    public static Snapshot load(String path) throws IOException {
+        return fromBytes(FileIO.readAllBytes(path));
+    }
+
+
+    public void save(String path) throws IOException {
+        FileIO.writeBytes(buffer.array(), path);
+    }
+
+
+    /**
+     * The encoded snapshot, this is the backing array and changes if the snapshot is taken again
+     */
+    public byte[] toBytes() {
+        return buffer.array();
+    }
+
+
+    public int width() {
+        return buffer.getShort(6) & 0xFFFF;
+    }
+
+
+    public int height() {
+        return buffer.getShort(8) & 0xFFFF;
+    }
+
+
+    public int ramSize() {
+        return buffer.getInt(10);
+    }
+
+
+    public int planes() {
+        return buffer.getShort(14) & 0xFFFF;
+    }
+
+
+    // Positioned at the start of the body, ready for the machine to write or read its state
+    ByteBuffer body() {
+        return buffer.clear().position(HEADER_BYTES);
+    }
+}
@@ -0,0 +1,594 @@
+package pantoja.chip8.instructions;
+
+import pantoja.chip8.memory.CpuState;
+import pantoja.chip8.memory.IBus;
+import pantoja.chip8.util.Quirks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Translates a basic block of CHIP-8 instructions into a hidden class implementing CompiledBlock.
+ * <p>
+ * Instructions are resolved to the same handler ids the CachedDecoder uses. For every instruction the generated run
+ * method stores the next PC and reports the opcode through storeInstruction, which keeps the trace and the idle loop
+ * counters exact. Register loads, the ALU, the I register, the timers and Fx65 are then emitted inline against the
+ * CpuState register array and the RAM byte array, with the quirks of the running profile folded in as constants.
+ * Everything else calls CachedDecoder.execute with the handler and operands as constants.
+ * <p>
+ * A block ends after any handler flagged ENDS_BLOCK in the CachedDecoder table: anything that can change control
+ * flow or stall, and anything that writes memory, so a block never keeps running after overwriting its own code.
+ * The emitted code has no branches, which means no stack map frames are needed and the class file writer stays
+ * tiny.
+ */
+final class BlockCompiler {
+    static final int MAX_BLOCK_LENGTH = 32;
+
+    private static final String BLOCK_CLASS = "pantoja/chip8/instructions/GeneratedBlock";
+    private static final String EXECUTOR_CLASS = "pantoja/chip8/instructions/IInstructionExecutor";
+    private static final String CPU_STATE_CLASS = "pantoja/chip8/memory/CpuState";
+    private static final String DECODER_CLASS = "pantoja/chip8/instructions/CachedDecoder";
+    private static final String RUN_DESCRIPTOR = "(L" + CPU_STATE_CLASS + ";L" + EXECUTOR_CLASS + ";)V";
+    private static final String EXECUTE_DESCRIPTOR = "(L" + EXECUTOR_CLASS + ";IIII)V";
+
+    // Locals of the generated run method after the CpuState (1) and the executor (2), aload_3 is the register array
+    private static final int RAM = 4;
+    private static final int TEMP = 5;
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private final CachedDecoder.Resolver resolver = new CachedDecoder.Resolver();
+
+
+    static final class Block {
+        final CompiledBlock code;
+        final int length;
+
+
+        private Block(CompiledBlock code, int length) {
+            this.code = code;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * @param quirks Quirks.* bits the block is compiled for, blocks have to be dropped when they change
+     */
+    Block compile(IBus bus, int start, int quirks) {
+        byte[] ram = bus.directMemory();
+        Emitter emitter = new Emitter(quirks, ram != null);
+        int length = 0;
+        int pc = start;
+        while (length < MAX_BLOCK_LENGTH && pc + 1 < bus.addressSpaceSize()) {
+            int instruction = bus.read16(pc);
+            int handler = resolver.resolve(instruction);
+            emitter.instruction(pc, instruction, handler, resolver.a, resolver.b, resolver.c);
+            length++;
+            pc += 2;
+            if (CachedDecoder.endsBlock(handler)) {
+                break;
+            }
+        }
+
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(emitter.toClassFile(), true);
+            CompiledBlock code = (CompiledBlock) hidden
+                    .findConstructor(hidden.lookupClass(), MethodType.methodType(void.class, byte[].class))
+                    .invoke(ram);
+            return new Block(code, length);
+        } catch (Throwable t) {
+            throw new IllegalStateException("Unable to compile block at 0x" + Integer.toHexString(start), t);
+        }
+    }
+
+
+    /**
+     * Builds the run method one instruction at a time, then wraps it in a class file
+     */
+    private static final class Emitter {
+        private final ConstantPool pool = new ConstantPool();
+        private final ByteArrayOutputStream run = new ByteArrayOutputStream();
+        private final boolean vfReset;
+        private final boolean shiftUsesVy;
+        private final boolean memoryIncrementsI;
+        private final boolean directMemory;
+        private final int pcField;
+        private final int iField;
+        private final int storeInstruction;
+        private boolean usesRam;
+
+
+        Emitter(int quirks, boolean directMemory) {
+            this.vfReset = (quirks & Quirks.VF_RESET) != 0;
+            this.shiftUsesVy = (quirks & Quirks.SHIFT_USES_VY) != 0;
+            this.memoryIncrementsI = (quirks & Quirks.MEMORY_INCREMENTS_I) != 0;
+            this.directMemory = directMemory;
+            pcField = pool.fieldRef(CPU_STATE_CLASS, "pc", "I");
+            iField = pool.fieldRef(CPU_STATE_CLASS, "I", "I");
+            storeInstruction = pool.methodRef(EXECUTOR_CLASS, "storeInstruction", "(I)V", true);
+        }
+
+
+        void instruction(int address, int opcode, int handler, int a, int b, int c) {
+            // cpuState.pc = address + 2
+            run.write(0x2B);
+            pushInt(address + 2);
+            run.write(0xB5);
+            writeShort(run, pcField);
+
+            // executor.storeInstruction(opcode)
+            run.write(0x2C);
+            pushInt(opcode);
+            invokeInterface(storeInstruction, 1);
+
+            switch (handler) {
+                case CachedDecoder.NOP, CachedDecoder.SYS -> {
+                }
+                case CachedDecoder.LOAD_VAL_INTO_REG -> {
+                    // V[x] = nn, bastore keeps the low byte
+                    startStore(a);
+                    pushInt(b);
+                    run.write(0x54);
+                }
+                case CachedDecoder.ADD_VAL_TO_REG -> {
+                    startStore(a);
+                    loadSignedRegister(a);
+                    pushInt(b);
+                    run.write(0x60);
+                    run.write(0x54);
+                }
+                case CachedDecoder.LOAD_REG_INTO_REG -> {
+                    startStore(a);
+                    loadSignedRegister(b);
+                    run.write(0x54);
+                }
+                case CachedDecoder.OR, CachedDecoder.AND, CachedDecoder.XOR -> {
+                    startStore(a);
+                    loadSignedRegister(a);
+                    loadSignedRegister(b);
+                    run.write(handler == CachedDecoder.OR ? 0x80 : handler == CachedDecoder.AND ? 0x7E : 0x82);
+                    run.write(0x54);
+                    if (vfReset) {
+                        storeFlag(() -> run.write(0x03));
+                    }
+                }
+                case CachedDecoder.ADD -> {
+                    // temp = V[x] + V[y], V[x] = temp, VF = temp >> 8
+                    loadRegister(a);
+                    loadRegister(b);
+                    run.write(0x60);
+                    storeTemp();
+                    storeTempInto(a);
+                    storeFlag(() -> {
+                        loadTemp();
+                        pushInt(8);
+                        run.write(0x7A);
+                    });
+                }
+                case CachedDecoder.SUB, CachedDecoder.SUB_NOT_BORROW -> {
+                    // temp = V[x] - V[y] (or the reverse), VF = 1 unless it went negative
+                    loadRegister(handler == CachedDecoder.SUB ? a : b);
+                    loadRegister(handler == CachedDecoder.SUB ? b : a);
+                    run.write(0x64);
+                    storeTemp();
+                    storeTempInto(a);
+                    storeFlag(() -> {
+                        loadTemp();
+                        pushInt(31);
+                        run.write(0x7C);
+                        run.write(0x04);
+                        run.write(0x82);
+                    });
+                }
+                case CachedDecoder.SHIFT_RIGHT -> {
+                    loadRegister(shiftUsesVy ? b : a);
+                    storeTemp();
+                    startStore(a);
+                    loadTemp();
+                    run.write(0x04);
+                    run.write(0x7A);
+                    run.write(0x54);
+                    storeFlag(() -> {
+                        loadTemp();
+                        run.write(0x04);
+                        run.write(0x7E);
+                    });
+                }
+                case CachedDecoder.SHIFT_LEFT -> {
+                    loadRegister(shiftUsesVy ? b : a);
+                    run.write(0x04);
+                    run.write(0x78);
+                    storeTemp();
+                    storeTempInto(a);
+                    storeFlag(() -> {
+                        loadTemp();
+                        pushInt(8);
+                        run.write(0x7A);
+                    });
+                }
+                case CachedDecoder.LOAD_VAL_TO_I -> {
+                    run.write(0x2B);
+                    pushInt(a);
+                    putField(iField);
+                }
+                case CachedDecoder.ADD_TO_ADDRESS -> {
+                    run.write(0x2B);
+                    run.write(0x59);
+                    getField(iField);
+                    loadRegister(a);
+                    run.write(0x60);
+                    putField(iField);
+                }
+                case CachedDecoder.LOAD_SPRITE_TO_I -> {
+                    run.write(0x2B);
+                    loadRegister(a);
+                    pushInt(5);
+                    run.write(0x68);
+                    pushInt(CpuState.FONT_START);
+                    run.write(0x60);
+                    putField(iField);
+                }
+                case CachedDecoder.LOAD_FROM_DISPLAY_TIMER -> {
+                    startStore(a);
+                    run.write(0x2B);
+                    getField(pool.fieldRef(CPU_STATE_CLASS, "delayTimer", "I"));
+                    run.write(0x54);
+                }
+                case CachedDecoder.LOAD_TO_DISPLAY_TIMER, CachedDecoder.LOAD_TO_SOUND_TIMER -> {
+                    run.write(0x2B);
+                    loadRegister(a);
+                    putField(pool.fieldRef(CPU_STATE_CLASS,
+                            handler == CachedDecoder.LOAD_TO_DISPLAY_TIMER ? "delayTimer" : "soundTimer", "I"));
+                }
+                case CachedDecoder.LOAD_I_TO_REGISTERS -> {
+                    if (!directMemory) {
+                        callExecute(handler, a, b, c);
+                        break;
+                    }
+                    // V[r] = ram[I + r], past the end of RAM the array throws just like the bus would
+                    usesRam = true;
+                    run.write(0x2B);
+                    getField(iField);
+                    storeTemp();
+                    for (int reg = 0; reg <= a; reg++) {
+                        startStore(reg);
+                        run.write(0x19);
+                        run.write(RAM);
+                        loadTemp();
+                        pushInt(reg);
+                        run.write(0x60);
+                        run.write(0x33);
+                        run.write(0x54);
+                    }
+                    if (memoryIncrementsI) {
+                        run.write(0x2B);
+                        loadTemp();
+                        pushInt(a + 1);
+                        run.write(0x60);
+                        putField(iField);
+                    }
+                }
+                // The common control flow, memory and display handlers call the executor directly, one monomorphic
+                // call site HotSpot inlines, the rest go through the shared dispatch
+                case CachedDecoder.CLS -> callExecutor("cls");
+                case CachedDecoder.RET -> callExecutor("ret");
+                case CachedDecoder.JUMP -> callExecutor("jump", a);
+                case CachedDecoder.CALL -> callExecutor("call", a);
+                case CachedDecoder.JUMP_PLUS_V0 -> callExecutor("jumpPlusV0", a);
+                case CachedDecoder.SKIP_IF_EQUAL_TO_VAL -> callExecutor("skipIfEqualToVal", a, b);
+                case CachedDecoder.SKIP_IF_NOT_EQUAL_TO_VAL -> callExecutor("skipIfNotEqualToVal", a, b);
+                case CachedDecoder.SKIP_IF_EQUAL -> callExecutor("skipIfEqual", a, b);
+                case CachedDecoder.SKIP_IF_NOT_EQUAL -> callExecutor("skipIfNotEqual", a, b);
+                case CachedDecoder.SKIP_IF_PRESSED -> callExecutor("skipIfPressed", a);
+                case CachedDecoder.SKIP_IF_NOT_PRESSED -> callExecutor("skipIfNotPressed", a);
+                case CachedDecoder.RAND -> callExecutor("rand", a, b);
+                case CachedDecoder.DRAW -> callExecutor("draw", a, b, c);
+                case CachedDecoder.LOAD_KEY_TO_REG -> callExecutor("loadKeyToReg", a);
+                case CachedDecoder.LOAD_REG_BCD_TO_I -> callExecutor("loadRegBcdToI", a);
+                case CachedDecoder.LOAD_REGISTERS_TO_I -> callExecutor("loadRegistersToI", a);
+                default -> callExecute(handler, a, b, c);
+            }
+        }
+
+
+        byte[] toClassFile() throws IOException {
+            int thisClass = pool.classRef(BLOCK_CLASS);
+            int superClass = pool.classRef("java/lang/Object");
+            int blockInterface = pool.classRef("pantoja/chip8/instructions/CompiledBlock");
+            int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V", false);
+            int ramField = pool.fieldRef(BLOCK_CLASS, "ram", "[B");
+            int ramName = pool.utf8("ram");
+            int ramDescriptor = pool.utf8("[B");
+            int initName = pool.utf8("<init>");
+            int initDescriptor = pool.utf8("([B)V");
+            int runName = pool.utf8("run");
+            int runDescriptor = pool.utf8(RUN_DESCRIPTOR);
+            int codeName = pool.utf8("Code");
+            int registers = pool.methodRef(CPU_STATE_CLASS, "registers", "()[B", false);
+
+            // <init>(ram): super(), this.ram = ram
+            ByteArrayOutputStream init = new ByteArrayOutputStream();
+            init.write(0x2A);
+            init.write(0xB7);
+            writeShort(init, objectInit);
+            init.write(0x2A);
+            init.write(0x2B);
+            init.write(0xB5);
+            writeShort(init, ramField);
+            init.write(0xB1);
+
+            // Prologue: the register array, and the RAM array when something reads it, go in locals
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            code.write(0x2B);
+            code.write(0xB6);
+            writeShort(code, registers);
+            code.write(0x4E);
+            if (usesRam) {
+                code.write(0x2A);
+                code.write(0xB4);
+                writeShort(code, ramField);
+                code.write(0x3A);
+                code.write(RAM);
+            }
+            run.writeTo(code);
+            code.write(0xB1);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61);
+            pool.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(blockInterface);
+            out.writeShort(1); // fields
+            out.writeShort(0x0002 | 0x0010); // private final
+            out.writeShort(ramName);
+            out.writeShort(ramDescriptor);
+            out.writeShort(0);
+            out.writeShort(2); // methods
+            writeMethod(out, initName, initDescriptor, codeName, 2, 2, init.toByteArray());
+            writeMethod(out, runName, runDescriptor, codeName, 8, TEMP + 1, code.toByteArray());
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        }
+
+
+        // executor.<name>(operands...), a misspelt name fails the first run with NoSuchMethodError
+        private void callExecutor(String name, int... operands) {
+            run.write(0x2C);
+            for (int operand : operands) {
+                pushInt(operand);
+            }
+            String descriptor = "(" + "I".repeat(operands.length) + ")V";
+            invokeInterface(pool.methodRef(EXECUTOR_CLASS, name, descriptor, true), operands.length);
+        }
+
+
+        // CachedDecoder.execute(executor, handler, a, b, c), the same dispatch the interpreter runs
+        private void callExecute(int handler, int a, int b, int c) {
+            run.write(0x2C);
+            pushInt(handler);
+            pushInt(a);
+            pushInt(b);
+            pushInt(c);
+            run.write(0xB8);
+            writeShort(run, pool.methodRef(DECODER_CLASS, "execute", EXECUTE_DESCRIPTOR, false));
+        }
+
+
+        // Pushes the register array and index, ready for a bastore once the value is on top
+        private void startStore(int reg) {
+            run.write(0x2D);
+            pushInt(reg);
+        }
+
+
+        // V[reg] as stored, sign extended, for results that only keep the low byte anyway
+        private void loadSignedRegister(int reg) {
+            run.write(0x2D);
+            pushInt(reg);
+            run.write(0x33);
+        }
+
+
+        // V[reg] as 0-255
+        private void loadRegister(int reg) {
+            loadSignedRegister(reg);
+            pushInt(0xFF);
+            run.write(0x7E);
+        }
+
+
+        private void storeTemp() {
+            run.write(0x36);
+            run.write(TEMP);
+        }
+
+
+        private void loadTemp() {
+            run.write(0x15);
+            run.write(TEMP);
+        }
+
+
+        private void storeTempInto(int reg) {
+            startStore(reg);
+            loadTemp();
+            run.write(0x54);
+        }
+
+
+        // VF is written after the result, so the flag wins when the result register is VF too
+        private void storeFlag(Runnable value) {
+            startStore(0xF);
+            value.run();
+            run.write(0x54);
+        }
+
+
+        private void getField(int field) {
+            run.write(0xB4);
+            writeShort(run, field);
+        }
+
+
+        private void putField(int field) {
+            run.write(0xB5);
+            writeShort(run, field);
+        }
+
+
+        private void invokeInterface(int method, int intArgs) {
+            run.write(0xB9);
+            writeShort(run, method);
+            run.write(1 + intArgs);
+            run.write(0);
+        }
+
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                run.write(0x03 + value);           // iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                run.write(0x10);                   // bipush
+                run.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                run.write(0x11);                   // sipush
+                writeShort(run, value);
+            } else {
+                run.write(0x13);                   // ldc_w
+                writeShort(run, pool.integer(value));
+            }
+        }
+    }
+
+
+    private static void writeMethod(
+            DataOutputStream out,
+            int name,
+            int descriptor,
+            int codeName,
+            int maxStack,
+            int maxLocals,
+            byte[] code
+    ) throws IOException {
+        out.writeShort(0x0001);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+
+    private static void writeShort(ByteArrayOutputStream code, int value) {
+        code.write((value >>> 8) & 0xFF);
+        code.write(value & 0xFF);
+    }
+
+
+    /**
+     * Just enough of a class file constant pool for the generated blocks, entries are de-duplicated
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int next = 1;
+
+
+        int utf8(String value) {
+            return entry("U" + value, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+
+        int integer(int value) {
+            return entry("I" + value, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, () -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(9, owner, name, descriptor);
+        }
+
+
+        int methodRef(String owner, String name, String descriptor, boolean isInterface) {
+            return memberRef(isInterface ? 11 : 10, owner, name, descriptor);
+        }
+
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(next);
+            target.write(bytes.toByteArray());
+        }
+
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("M" + tag + owner + "." + name + ":" + descriptor, () -> {
+                out.writeByte(tag);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+
+        private int entry(String key, PoolWriter writer) {
+            Integer existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            int index = next++;
+            entries.put(key, index);
+            return index;
+        }
+
+
+        @FunctionalInterface
+        private interface PoolWriter {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package pantoja.chip8.instructions;
+
+import pantoja.chip8.memory.CpuState;
+import pantoja.chip8.memory.IBus;
+import pantoja.chip8.memory.IBusWriteListener;
+
+/**
+ * Recompiling execution engine. Addresses start out interpreted through a CachedDecoder, and once a block entry
+ * has run HOT_THRESHOLD times the basic block starting there is compiled to a hidden class by the BlockCompiler.
+ * <p>
+ * A compiled block only runs when it fits in the remaining instruction budget, so frame pacing sees exactly the
+ * same instruction counts as the interpreter. Writes through the bus drop every block whose code they touch.
+ */
+public class BlockDecoder implements IDecoder, IBusWriteListener {
+    private static final int HOT_THRESHOLD = 16;
+
+    private final IInstructionExecutor executor;
+    private final IBus bus;
+    private final CachedDecoder interpreter;
+    private final BlockCompiler compiler;
+
+    private final CompiledBlock[] blocks;
+    private final int[] blockLengths;
+    private final int[] heat;
+    // Number of compiled blocks covering each slot, lets writes to plain data return immediately
+    private final int[] coverage;
+    private int quirks;
+
+
+    public BlockDecoder(IInstructionExecutor executor, IBus bus) {
+        this.executor = executor;
+        this.bus = bus;
+        this.interpreter = new CachedDecoder(executor, bus);
+        this.compiler = new BlockCompiler();
+
+        int slots = bus.addressSpaceSize() / 2;
+        blocks = new CompiledBlock[slots];
+        blockLengths = new int[slots];
+        heat = new int[slots];
+        coverage = new int[slots];
+
+        bus.addWriteListener(this);
+    }
+
+
+    @Override
+    public void step(CpuState cpuState) {
+        interpreter.step(cpuState);
+    }
+
+
+    @Override
+    public int run(CpuState cpuState, int budget) {
+        int executed = 0;
+        while (executed < budget && !cpuState.waitingForDisplay && !cpuState.endBatch) {
+            int pc = cpuState.pc;
+            int slot = pc >> 1;
+
+            if ((pc & 1) == 0 && slot < blocks.length) {
+                CompiledBlock block = blocks[slot];
+                if (block == null && ++heat[slot] >= HOT_THRESHOLD) {
+                    block = compile(slot);
+                }
+                if (block != null && blockLengths[slot] <= budget - executed) {
+                    block.run(cpuState, executor);
+                    executed += blockLengths[slot];
+                    continue;
+                }
+            }
+
+            interpreter.step(cpuState);
+            executed++;
+        }
+        return executed;
+    }
+
+
+    @Override
+    public void onWrite(int addr, int len) {
+        int first = Math.max(0, addr >> 1);
+        int last = Math.min(blocks.length - 1, (addr + len - 1) >> 1);
+
+        boolean touchesCode = false;
+        for (int slot = first; slot <= last; slot++) {
+            if (coverage[slot] != 0) {
+                touchesCode = true;
+                break;
+            }
+        }
+        if (!touchesCode) {
+            return;
+        }
+
+        // Only blocks starting at most MAX_BLOCK_LENGTH slots back can reach the written range
+        for (int start = Math.max(0, first - BlockCompiler.MAX_BLOCK_LENGTH + 1); start <= last; start++) {
+            if (blocks[start] != null && start + blockLengths[start] > first) {
+                invalidate(start);
+            }
+        }
+    }
+
+
+    /**
+     * Drops every compiled block and cached instruction, needed when memory is changed without going through the bus
+     */
+    @Override
+    public void invalidateAll() {
+        for (int slot = 0; slot < blocks.length; slot++) {
+            if (blocks[slot] != null) {
+                invalidate(slot);
+            }
+        }
+        interpreter.invalidateAll();
+    }
+
+
+    /**
+     * Blocks have the quirks compiled in, so a change drops them all
+     */
+    @Override
+    public void setQuirks(int quirks) {
+        if (quirks != this.quirks) {
+            this.quirks = quirks;
+            invalidateAll();
+        }
+    }
+
+
+    /**
+     * Stops listening to the bus so a discarded decoder can be collected
+     */
+    @Override
+    public void detach() {
+        bus.removeWriteListener(this);
+        interpreter.detach();
+    }
+
+
+    private CompiledBlock compile(int slot) {
+        BlockCompiler.Block block = compiler.compile(bus, slot << 1, quirks);
+        blocks[slot] = block.code;
+        blockLengths[slot] = block.length;
+        for (int s = slot; s < slot + block.length; s++) {
+            coverage[s]++;
+        }
+        return block.code;
+    }
+
+
+    private void invalidate(int slot) {
+        for (int s = slot; s < slot + blockLengths[slot]; s++) {
+            coverage[s]--;
+        }
+        blocks[slot] = null;
+        blockLengths[slot] = 0;
+        heat[slot] = 0;
+    }
+}
@@ -0,0 +1,583 @@
+package pantoja.chip8.instructions;
+
+import pantoja.chip8.memory.CpuState;
+import pantoja.chip8.memory.IBus;
+import pantoja.chip8.memory.IBusWriteListener;
+
+import java.util.Arrays;
+
+/**
+ * Decoder that remembers what every even address decoded to. Each slot holds the resolved handler plus its
+ * operands, so a cached instruction skips the bus fetch, the field extraction and the nested opcode switch.
+ * <p>
+ * Handlers are dense ids dispatched through a single table switch rather than one lambda per handler, so the
+ * executor calls stay monomorphic and can be inlined by the JIT.
+ * <p>
+ * Slots are filled lazily the first time an address executes and dropped whenever the bus reports a write
+ * touching them, which keeps self-modifying ROMs correct. Instructions at odd addresses are never cached.
+ */
+public class CachedDecoder implements IDecoder, IBusWriteListener {
+    /**
+     * Set in the id of every handler that can change control flow, stall the CPU or write memory. The BlockCompiler
+     * ends a basic block after such an instruction, so a new handler has to decide here whether it is one. Ids stay
+     * below 0x40 so the flag still fits the byte handler table.
+     */
+    static final int ENDS_BLOCK = 0x40;
+
+    // Resolved handlers, 0 marks a slot that still needs decoding
+    private static final int UNRESOLVED = 0;
+    static final int NOP = 1;
+    static final int SYS = 2;
+    static final int CLS = 3;
+    static final int RET = 4 | ENDS_BLOCK;
+    static final int JUMP = 5 | ENDS_BLOCK;
+    static final int CALL = 6 | ENDS_BLOCK;
+    static final int SKIP_IF_EQUAL_TO_VAL = 7 | ENDS_BLOCK;
+    static final int SKIP_IF_NOT_EQUAL_TO_VAL = 8 | ENDS_BLOCK;
+    static final int SKIP_IF_EQUAL = 9 | ENDS_BLOCK;
+    static final int LOAD_VAL_INTO_REG = 10;
+    static final int ADD_VAL_TO_REG = 11;
+    static final int LOAD_REG_INTO_REG = 12;
+    static final int OR = 13;
+    static final int AND = 14;
+    static final int XOR = 15;
+    static final int ADD = 16;
+    static final int SUB = 17;
+    static final int SHIFT_RIGHT = 18;
+    static final int SUB_NOT_BORROW = 19;
+    static final int SHIFT_LEFT = 20;
+    static final int SKIP_IF_NOT_EQUAL = 21 | ENDS_BLOCK;
+    static final int LOAD_VAL_TO_I = 22;
+    static final int JUMP_PLUS_V0 = 23 | ENDS_BLOCK;
+    static final int RAND = 24;
+    static final int DRAW = 25 | ENDS_BLOCK;
+    static final int SKIP_IF_PRESSED = 26 | ENDS_BLOCK;
+    static final int SKIP_IF_NOT_PRESSED = 27 | ENDS_BLOCK;
+    static final int LOAD_FROM_DISPLAY_TIMER = 28;
+    static final int LOAD_KEY_TO_REG = 29 | ENDS_BLOCK;
+    static final int LOAD_TO_DISPLAY_TIMER = 30;
+    static final int LOAD_TO_SOUND_TIMER = 31;
+    static final int ADD_TO_ADDRESS = 32;
+    static final int LOAD_SPRITE_TO_I = 33;
+    static final int LOAD_REG_BCD_TO_I = 34 | ENDS_BLOCK;
+    static final int LOAD_REGISTERS_TO_I = 35 | ENDS_BLOCK;
+    static final int LOAD_I_TO_REGISTERS = 36;
+    static final int LOAD_AUDIO_PATTERN = 37;
+    static final int LOAD_PITCH = 38;
+    static final int SCROLL_DOWN = 39;
+    static final int SCROLL_RIGHT = 40;
+    static final int SCROLL_LEFT = 41;
+    static final int EXIT = 42 | ENDS_BLOCK;
+    static final int LOW_RES = 43;
+    static final int HIGH_RES = 44;
+    static final int LOAD_BIG_SPRITE_TO_I = 45;
+    static final int SAVE_FLAGS = 46;
+    static final int LOAD_FLAGS = 47;
+    static final int SCROLL_UP = 48;
+    static final int SAVE_RANGE = 49 | ENDS_BLOCK;
+    static final int LOAD_RANGE = 50;
+    static final int LOAD_LONG_I = 51 | ENDS_BLOCK;
+    static final int SELECT_PLANES = 52;
+
+    private final IInstructionExecutor executor;
+    private final IBus bus;
+    private final Decoder decoder;
+    private final Resolver resolver;
+
+    private final byte[] handlers;
+    private final int[] opcodes;
+    private final int[] operandA;
+    private final int[] operandB;
+    private final int[] operandC;
+
+
+    public CachedDecoder(IInstructionExecutor executor, IBus bus) {
+        this.executor = executor;
+        this.bus = bus;
+        this.decoder = new Decoder(executor);
+        this.resolver = new Resolver();
+
+        int slots = bus.addressSpaceSize() / 2;
+        handlers = new byte[slots];
+        opcodes = new int[slots];
+        operandA = new int[slots];
+        operandB = new int[slots];
+        operandC = new int[slots];
+
+        bus.addWriteListener(this);
+    }
+
+
+    @Override
+    public void step(CpuState cpuState) {
+        int pc = cpuState.pc;
+        int slot = pc >> 1;
+
+        if ((pc & 1) != 0 || slot >= handlers.length) {
+            decoder.step(cpuState);
+            return;
+        }
+
+        int handler = handlers[slot];
+        if (handler == UNRESOLVED) {
+            handler = resolve(slot, bus.read16(pc));
+        }
+
+        cpuState.incrementPC();
+        executor.storeInstruction(opcodes[slot]);
+        execute(executor, handler, operandA[slot], operandB[slot], operandC[slot]);
+    }
+
+
+    static boolean endsBlock(int handler) {
+        return (handler & ENDS_BLOCK) != 0;
+    }
+
+
+    @Override
+    public void onWrite(int addr, int len) {
+        int first = Math.max(0, addr >> 1);
+        int last = Math.min(handlers.length - 1, (addr + len - 1) >> 1);
+        for (int slot = first; slot <= last; slot++) {
+            handlers[slot] = UNRESOLVED;
+        }
+    }
+
+
+    /**
+     * Drops every cached instruction, needed when memory is changed without going through the bus
+     */
+    @Override
+    public void invalidateAll() {
+        Arrays.fill(handlers, (byte) UNRESOLVED);
+    }
+
+
+    /**
+     * Stops listening to the bus so a discarded decoder can be collected
+     */
+    @Override
+    public void detach() {
+        bus.removeWriteListener(this);
+    }
+
+
+    private int resolve(int slot, int instruction) {
+        int handler = resolver.resolve(instruction);
+        handlers[slot] = (byte) handler;
+        opcodes[slot] = instruction;
+        operandA[slot] = resolver.a;
+        operandB[slot] = resolver.b;
+        operandC[slot] = resolver.c;
+        return handler;
+    }
+
+
+    /**
+     * Runs a resolved handler, also the fallback compiled blocks call for handlers they have no inline code for
+     */
+    static void execute(IInstructionExecutor executor, int handler, int a, int b, int c) {
+        switch (handler) {
+            case NOP -> executor.nop();
+            case SYS -> executor.sys(a);
+            case CLS -> executor.cls();
+            case RET -> executor.ret();
+            case JUMP -> executor.jump(a);
+            case CALL -> executor.call(a);
+            case SKIP_IF_EQUAL_TO_VAL -> executor.skipIfEqualToVal(a, b);
+            case SKIP_IF_NOT_EQUAL_TO_VAL -> executor.skipIfNotEqualToVal(a, b);
+            case SKIP_IF_EQUAL -> executor.skipIfEqual(a, b);
+            case LOAD_VAL_INTO_REG -> executor.loadValIntoReg(a, b);
+            case ADD_VAL_TO_REG -> executor.addValToReg(a, b);
+            case LOAD_REG_INTO_REG -> executor.loadRegIntoReg(a, b);
+            case OR -> executor.or(a, b);
+            case AND -> executor.and(a, b);
+            case XOR -> executor.xor(a, b);
+            case ADD -> executor.add(a, b);
+            case SUB -> executor.sub(a, b);
+            case SHIFT_RIGHT -> executor.shiftRight(a, b);
+            case SUB_NOT_BORROW -> executor.subNotBorrow(a, b);
+            case SHIFT_LEFT -> executor.shiftLeft(a, b);
+            case SKIP_IF_NOT_EQUAL -> executor.skipIfNotEqual(a, b);
+            case LOAD_VAL_TO_I -> executor.loadValToI(a);
+            case JUMP_PLUS_V0 -> executor.jumpPlusV0(a);
+            case RAND -> executor.rand(a, b);
+            case DRAW -> executor.draw(a, b, c);
+            case SKIP_IF_PRESSED -> executor.skipIfPressed(a);
+            case SKIP_IF_NOT_PRESSED -> executor.skipIfNotPressed(a);
+            case LOAD_FROM_DISPLAY_TIMER -> executor.loadFromDisplayTimer(a);
+            case LOAD_KEY_TO_REG -> executor.loadKeyToReg(a);
+            case LOAD_TO_DISPLAY_TIMER -> executor.loadToDisplayTimer(a);
+            case LOAD_TO_SOUND_TIMER -> executor.loadToSoundTimer(a);
+            case ADD_TO_ADDRESS -> executor.addToAddress(a);
+            case LOAD_SPRITE_TO_I -> executor.loadSpriteToI(a);
+            case LOAD_REG_BCD_TO_I -> executor.loadRegBcdToI(a);
+            case LOAD_REGISTERS_TO_I -> executor.loadRegistersToI(a);
+            case LOAD_I_TO_REGISTERS -> executor.loadIToRegisters(a);
+            case LOAD_AUDIO_PATTERN -> executor.loadAudioPattern();
+            case LOAD_PITCH -> executor.loadPitch(a);
+            case SCROLL_DOWN -> executor.scrollDown(a);
+            case SCROLL_RIGHT -> executor.scrollRight();
+            case SCROLL_LEFT -> executor.scrollLeft();
+            case EXIT -> executor.exit();
+            case LOW_RES -> executor.lowRes();
+            case HIGH_RES -> executor.highRes();
+            case LOAD_BIG_SPRITE_TO_I -> executor.loadBigSpriteToI(a);
+            case SAVE_FLAGS -> executor.saveFlags(a);
+            case LOAD_FLAGS -> executor.loadFlags(a);
+            case SCROLL_UP -> executor.scrollUp(a);
+            case SAVE_RANGE -> executor.saveRange(a, b);
+            case LOAD_RANGE -> executor.loadRange(a, b);
+            case LOAD_LONG_I -> executor.loadLongI();
+            case SELECT_PLANES -> executor.selectPlanes(a);
+            default -> throw new IllegalStateException("Unresolved handler: " + handler);
+        }
+    }
+
+
+    /**
+     * Captures which executor call the stock Decoder picks, so the opcode table only lives in one place
+     */
+    static final class Resolver implements IInstructionExecutor {
+        private final Decoder decoder = new Decoder(this);
+        // Operands of the last resolved instruction
+        int a;
+        int b;
+        int c;
+        private int handler;
+
+
+        /**
+         * @return The handler id for the instruction, its operands are left in a, b and c
+         */
+        int resolve(int instruction) {
+            decoder.decode(instruction);
+            return handler;
+        }
+
+
+        private void set(int handler, int a, int b, int c) {
+            this.handler = handler;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+
+        @Override
+        public void storeInstruction(int instruction) {
+        }
+
+
+        @Override
+        public void nop() {
+            set(NOP, 0, 0, 0);
+        }
+
+
+        @Override
+        public void sys(int addr) {
+            set(SYS, addr, 0, 0);
+        }
+
+
+        @Override
+        public void cls() {
+            set(CLS, 0, 0, 0);
+        }
+
+
+        @Override
+        public void ret() {
+            set(RET, 0, 0, 0);
+        }
+
+
+        @Override
+        public void scrollDown(int n) {
+            set(SCROLL_DOWN, n, 0, 0);
+        }
+
+
+        @Override
+        public void scrollUp(int n) {
+            set(SCROLL_UP, n, 0, 0);
+        }
+
+
+        @Override
+        public void scrollRight() {
+            set(SCROLL_RIGHT, 0, 0, 0);
+        }
+
+
+        @Override
+        public void scrollLeft() {
+            set(SCROLL_LEFT, 0, 0, 0);
+        }
+
+
+        @Override
+        public void exit() {
+            set(EXIT, 0, 0, 0);
+        }
+
+
+        @Override
+        public void lowRes() {
+            set(LOW_RES, 0, 0, 0);
+        }
+
+
+        @Override
+        public void highRes() {
+            set(HIGH_RES, 0, 0, 0);
+        }
+
+
+        @Override
+        public void jump(int addr) {
+            set(JUMP, addr, 0, 0);
+        }
+
+
+        @Override
+        public void call(int addr) {
+            set(CALL, addr, 0, 0);
+        }
+
+
+        @Override
+        public void skipIfEqualToVal(int vx, int val) {
+            set(SKIP_IF_EQUAL_TO_VAL, vx, val, 0);
+        }
+
+
+        @Override
+        public void skipIfNotEqualToVal(int vx, int val) {
+            set(SKIP_IF_NOT_EQUAL_TO_VAL, vx, val, 0);
+        }
+
+
+        @Override
+        public void skipIfEqual(int vx, int vy) {
+            set(SKIP_IF_EQUAL, vx, vy, 0);
+        }
+
+
+        @Override
+        public void saveRange(int vx, int vy) {
+            set(SAVE_RANGE, vx, vy, 0);
+        }
+
+
+        @Override
+        public void loadRange(int vx, int vy) {
+            set(LOAD_RANGE, vx, vy, 0);
+        }
+
+
+        @Override
+        public void loadValIntoReg(int vx, int val) {
+            set(LOAD_VAL_INTO_REG, vx, val, 0);
+        }
+
+
+        @Override
+        public void addValToReg(int vx, int val) {
+            set(ADD_VAL_TO_REG, vx, val, 0);
+        }
+
+
+        @Override
+        public void loadRegIntoReg(int vx, int vy) {
+            set(LOAD_REG_INTO_REG, vx, vy, 0);
+        }
+
+
+        @Override
+        public void or(int vx, int vy) {
+            set(OR, vx, vy, 0);
+        }
+
+
+        @Override
+        public void and(int vx, int vy) {
+            set(AND, vx, vy, 0);
+        }
+
+
+        @Override
+        public void xor(int vx, int vy) {
+            set(XOR, vx, vy, 0);
+        }
+
+
+        @Override
+        public void add(int vx, int vy) {
+            set(ADD, vx, vy, 0);
+        }
+
+
+        @Override
+        public void sub(int vx, int vy) {
+            set(SUB, vx, vy, 0);
+        }
+
+
+        @Override
+        public void shiftRight(int vx, int vy) {
+            set(SHIFT_RIGHT, vx, vy, 0);
+        }
+
+
+        @Override
+        public void subNotBorrow(int vx, int vy) {
+            set(SUB_NOT_BORROW, vx, vy, 0);
+        }
+
+
+        @Override
+        public void shiftLeft(int vx, int vy) {
+            set(SHIFT_LEFT, vx, vy, 0);
+        }
+
+
+        @Override
+        public void skipIfNotEqual(int vx, int vy) {
+            set(SKIP_IF_NOT_EQUAL, vx, vy, 0);
+        }
+
+
+        @Override
+        public void loadValToI(int val) {
+            set(LOAD_VAL_TO_I, val, 0, 0);
+        }
+
+
+        @Override
+        public void loadLongI() {
+            set(LOAD_LONG_I, 0, 0, 0);
+        }
+
+
+        @Override
+        public void jumpPlusV0(int addr) {
+            set(JUMP_PLUS_V0, addr, 0, 0);
+        }
+
+
+        @Override
+        public void rand(int vx, int val) {
+            set(RAND, vx, val, 0);
+        }
+
+
+        @Override
+        public void draw(int vx, int vy, int val) {
+            set(DRAW, vx, vy, val);
+        }
+
+
+        @Override
+        public void skipIfPressed(int vx) {
+            set(SKIP_IF_PRESSED, vx, 0, 0);
+        }
+
+
+        @Override
+        public void skipIfNotPressed(int vx) {
+            set(SKIP_IF_NOT_PRESSED, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadFromDisplayTimer(int vx) {
+            set(LOAD_FROM_DISPLAY_TIMER, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadKeyToReg(int vx) {
+            set(LOAD_KEY_TO_REG, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadToDisplayTimer(int vx) {
+            set(LOAD_TO_DISPLAY_TIMER, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadToSoundTimer(int vx) {
+            set(LOAD_TO_SOUND_TIMER, vx, 0, 0);
+        }
+
+
+        @Override
+        public void addToAddress(int vx) {
+            set(ADD_TO_ADDRESS, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadSpriteToI(int vx) {
+            set(LOAD_SPRITE_TO_I, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadBigSpriteToI(int vx) {
+            set(LOAD_BIG_SPRITE_TO_I, vx, 0, 0);
+        }
+
+
+        @Override
+        public void selectPlanes(int n) {
+            set(SELECT_PLANES, n, 0, 0);
+        }
+
+
+        @Override
+        public void loadAudioPattern() {
+            set(LOAD_AUDIO_PATTERN, 0, 0, 0);
+        }
+
+
+        @Override
+        public void loadPitch(int vx) {
+            set(LOAD_PITCH, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadRegBcdToI(int vx) {
+            set(LOAD_REG_BCD_TO_I, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadRegistersToI(int vx) {
+            set(LOAD_REGISTERS_TO_I, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadIToRegisters(int vx) {
+            set(LOAD_I_TO_REGISTERS, vx, 0, 0);
+        }
+
+
+        @Override
+        public void saveFlags(int vx) {
+            set(SAVE_FLAGS, vx, 0, 0);
+        }
+
+
+        @Override
+        public void loadFlags(int vx) {
+            set(LOAD_FLAGS, vx, 0, 0);
+        }
+    }
+}
@@ -1,40 +1,134 @@
 package pantoja.chip8.instructions;
 
+import pantoja.chip8.io.IKeypad;
 import pantoja.chip8.memory.CpuState;
+import pantoja.chip8.memory.FrameBuffer;
 import pantoja.chip8.memory.IBus;
-import pantoja.chip8.util.Config;
-import pantoja.chip8.ux.Keypad;
-import pantoja.chip8.ux.Window;
+import pantoja.chip8.util.IRandom;
+import pantoja.chip8.util.Profile;
+import pantoja.chip8.util.Quirks;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Arrays;
 
 public class Chip8Executor implements IInstructionExecutor {
     private final CpuState cpuState;
-    private final Window window;
-    private final Keypad keypad;
-    private final List<String> instructions;
+    private final FrameBuffer frameBuffer;
+    private final IKeypad keypad;
     private final IBus bus;
+    private final IRandom random;
+    private ExecutionTrace trace;
+    // Sprite rows are copied here rather than into a fresh array on every draw, 32 fits a doubled 16x16 sprite
+    private final int[] sprite = new int[32];
+
+    // Set from the profile and quirks on every reset
+    private boolean superChip;
+    private boolean xoChip;
+    private boolean vfReset = true;
+    private boolean shiftUsesVy = true;
+    private boolean memoryIncrementsI = true;
+    private boolean jumpUsesVx;
+    private boolean displayWait = true;
+
+    // Idle loop detection, only armed while the machine runs a batch. Every instruction is counted, and anything
+    // that changes more than the registers (memory, display, keypad, random state, audio) counts as a write.
+    private boolean detectIdleLoops;
+    private long instructions;
+    private long writes;
+    // One probe per backward jump, indexed by address, so an inner loop doesn't wipe the probe of the loop around it
+    private static final int PROBES = 8;
+    private final int[] probeJumps = new int[PROBES];
+    private final long[] probeInstructions = new long[PROBES];
+    private final long[] probeWrites = new long[PROBES];
+    private final int[][] probeRegisters = new int[PROBES][CpuState.REGISTER_STATE_INTS];
+    private int idleLoopLength;
+
+    // Each bit of a byte twice over, widening a low resolution sprite row to 16 pixels
+    private static final int[] DOUBLED = new int[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int wide = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                if ((b & (1 << bit)) != 0) {
+                    wide |= 3 << (2 * bit);
+                }
+            }
+            DOUBLED[b] = wide;
+        }
+    }
 
 
     public Chip8Executor(
             final CpuState cpuState,
-            final Window window,
-            final Keypad keypad,
-            final IBus bus
+            final FrameBuffer frameBuffer,
+            final IKeypad keypad,
+            final IBus bus,
+            final IRandom random
     ) {
         this.cpuState = cpuState;
-        this.window = window;
+        this.frameBuffer = frameBuffer;
         this.keypad = keypad;
         this.bus = bus;
-        this.instructions = new ArrayList<>(0xFFFF);
+        this.random = random;
+    }
+
+
+    /**
+     * Enables recording of executed instructions, null turns tracing off
+     */
+    public void setTrace(ExecutionTrace trace) {
+        this.trace = trace;
+    }
+
+
+    public ExecutionTrace getTrace() {
+        return trace;
+    }
+
+
+    /**
+     * Picks the instruction set and quirks. Opcodes from a later variant than the profile run as no-ops.
+     *
+     * @param quirks Quirks.* bits
+     */
+    public void setProfile(Profile profile, int quirks) {
+        superChip = profile.superChip;
+        xoChip = profile.xoChip;
+        vfReset = (quirks & Quirks.VF_RESET) != 0;
+        shiftUsesVy = (quirks & Quirks.SHIFT_USES_VY) != 0;
+        memoryIncrementsI = (quirks & Quirks.MEMORY_INCREMENTS_I) != 0;
+        jumpUsesVx = (quirks & Quirks.JUMP_USES_VX) != 0;
+        displayWait = (quirks & Quirks.DISPLAY_WAIT) != 0;
+    }
+
+
+    /**
+     * Arms or disarms idle loop detection. Only arm it while the keys and timers the program can read stay the
+     * same, which holds for one batch between two timer ticks.
+     */
+    public void detectIdleLoops(boolean enabled) {
+        detectIdleLoops = enabled;
+        Arrays.fill(probeJumps, -1);
+        idleLoopLength = 0;
+    }
+
+
+    /**
+     * Length in instructions of the idle loop that set endBatch, 0 if none was found. Once a loop has been found the
+     * CPU state at its backward jump repeats every that many instructions, until a timer tick or key change.
+     */
+    public int idleLoopLength() {
+        return idleLoopLength;
     }
 
 
     @Override
     public void storeInstruction(int instruction) {
-        instructions.add(String.format("%04X", instruction & 0xFFFF));
+        instructions++;
+        if (trace != null) {
+            // The PC has already advanced past the fetched instruction
+            trace.record(cpuState.pc - 2, instruction, cpuState.I);
+        }
     }
 
 
@@ -50,7 +144,8 @@ public class Chip8Executor implements IInstructionExecutor {
 
     @Override
     public void cls() {
-        window.clear();
+        writes++;
+        frameBuffer.clear(cpuState.planes);
     }
 
 
@@ -60,9 +155,88 @@ public class Chip8Executor implements IInstructionExecutor {
     }
 
 
+    @Override
+    public void scrollDown(int n) {
+        if (!superChip) {
+            return;
+        }
+        writes++;
+        // Low resolution pixels are two rows tall
+        frameBuffer.scrollDown(cpuState.hiRes ? n : 2 * n, cpuState.planes);
+    }
+
+
+    @Override
+    public void scrollUp(int n) {
+        if (!xoChip) {
+            return;
+        }
+        writes++;
+        frameBuffer.scrollUp(cpuState.hiRes ? n : 2 * n, cpuState.planes);
+    }
+
+
+    @Override
+    public void scrollRight() {
+        if (!superChip) {
+            return;
+        }
+        writes++;
+        frameBuffer.scrollRight(cpuState.hiRes ? 4 : 8, cpuState.planes);
+    }
+
+
+    @Override
+    public void scrollLeft() {
+        if (!superChip) {
+            return;
+        }
+        writes++;
+        frameBuffer.scrollLeft(cpuState.hiRes ? 4 : 8, cpuState.planes);
+    }
+
+
+    @Override
+    public void exit() {
+        if (!superChip) {
+            return;
+        }
+        cpuState.halted = true;
+        cpuState.decrementPC();
+        cpuState.endBatch = true;
+    }
+
+
+    @Override
+    public void lowRes() {
+        setResolution(false);
+    }
+
+
+    @Override
+    public void highRes() {
+        setResolution(true);
+    }
+
+
+    // Switching clears the screen, as modern SUPER-CHIP interpreters do
+    private void setResolution(boolean hiRes) {
+        if (!superChip) {
+            return;
+        }
+        writes++;
+        cpuState.hiRes = hiRes;
+        frameBuffer.clear();
+    }
+
+
     @Override
     public void jump(int addr) {
+        int from = cpuState.pc - 2;
         cpuState.pc = addr;
+        if (detectIdleLoops && addr <= from) {
+            checkIdleLoop(from);
+        }
     }
 
 
@@ -76,7 +250,7 @@ public class Chip8Executor implements IInstructionExecutor {
     @Override
     public void skipIfEqualToVal(int vx, int val) {
         if (cpuState.readRegister(vx) == val) {
-            cpuState.incrementPC();
+            skip();
         }
     }
 
@@ -84,7 +258,7 @@ public class Chip8Executor implements IInstructionExecutor {
     @Override
     public void skipIfNotEqualToVal(int vx, int val) {
         if (cpuState.readRegister(vx) != val) {
-            cpuState.incrementPC();
+            skip();
         }
     }
 
@@ -92,7 +266,34 @@ public class Chip8Executor implements IInstructionExecutor {
     @Override
     public void skipIfEqual(int vx, int vy) {
         if (cpuState.readRegister(vx) == cpuState.readRegister(vy)) {
-            cpuState.incrementPC();
+            skip();
+        }
+    }
+
+
+    @Override
+    public void saveRange(int vx, int vy) {
+        if (!xoChip) {
+            return;
+        }
+        writes++;
+        int step = (vx <= vy) ? 1 : -1;
+        int count = Math.abs(vy - vx) + 1;
+        for (int i = 0; i < count; i++) {
+            bus.write8(cpuState.I + i, cpuState.readRegister(vx + i * step));
+        }
+    }
+
+
+    @Override
+    public void loadRange(int vx, int vy) {
+        if (!xoChip) {
+            return;
+        }
+        int step = (vx <= vy) ? 1 : -1;
+        int count = Math.abs(vy - vx) + 1;
+        for (int i = 0; i < count; i++) {
+            cpuState.writeRegister(vx + i * step, bus.read8(cpuState.I + i));
         }
     }
 
@@ -121,7 +322,9 @@ public class Chip8Executor implements IInstructionExecutor {
         int toLoad = cpuState.readRegister(vx) | cpuState.readRegister(vy);
         cpuState.writeRegister(vx, toLoad);
         // Chip-8 Quirk (reset flag)
-        cpuState.writeRegister(0xF, 0);
+        if (vfReset) {
+            cpuState.writeRegister(0xF, 0);
+        }
     }
 
 
@@ -130,7 +333,9 @@ public class Chip8Executor implements IInstructionExecutor {
         int toLoad = cpuState.readRegister(vx) & cpuState.readRegister(vy);
         cpuState.writeRegister(vx, toLoad);
         // Chip-8 Quirk (reset flag)
-        cpuState.writeRegister(0xF, 0);
+        if (vfReset) {
+            cpuState.writeRegister(0xF, 0);
+        }
     }
 
 
@@ -139,7 +344,9 @@ public class Chip8Executor implements IInstructionExecutor {
         int toLoad = cpuState.readRegister(vx) ^ cpuState.readRegister(vy);
         cpuState.writeRegister(vx, toLoad);
         // Chip-8 Quirk (reset flag)
-        cpuState.writeRegister(0xF, 0);
+        if (vfReset) {
+            cpuState.writeRegister(0xF, 0);
+        }
     }
 
 
@@ -161,10 +368,9 @@ public class Chip8Executor implements IInstructionExecutor {
     }
 
 
-    // TODO make quirk configurable
     @Override
     public void shiftRight(int vx, int vy) {
-        int y = cpuState.readRegister(vy);
+        int y = cpuState.readRegister(shiftUsesVy ? vy : vx);
         int carry = y % 2;
         cpuState.writeRegister(vx, y >> 1);
         cpuState.writeRegister(0xF, carry);
@@ -181,10 +387,9 @@ public class Chip8Executor implements IInstructionExecutor {
     }
 
 
-    //TODO make quirk configurable
     @Override
     public void shiftLeft(int vx, int vy) {
-        int y = cpuState.readRegister(vy) << 1;
+        int y = cpuState.readRegister(shiftUsesVy ? vy : vx) << 1;
         cpuState.writeRegister(vx, y & 0xFF);
         cpuState.writeRegister(0xF, (y & 0x100) >> 8);
     }
@@ -193,7 +398,7 @@ public class Chip8Executor implements IInstructionExecutor {
     @Override
     public void skipIfNotEqual(int vx, int vy) {
         if (cpuState.readRegister(vx) != cpuState.readRegister(vy)) {
-            cpuState.incrementPC();
+            skip();
         }
     }
 
@@ -204,37 +409,102 @@ public class Chip8Executor implements IInstructionExecutor {
     }
 
 
+    @Override
+    public void loadLongI() {
+        if (!xoChip) {
+            return;
+        }
+        // The address is the next word, which the PC steps over
+        cpuState.I = bus.read16(cpuState.pc);
+        cpuState.incrementPC();
+    }
+
+
     @Override
     public void jumpPlusV0(int addr) {
-        cpuState.pc = addr + cpuState.readRegister(0);
+        // SUPER-CHIP quirk, the top nibble of the address doubles as the register
+        int reg = jumpUsesVx ? addr >> 8 : 0;
+        cpuState.pc = addr + cpuState.readRegister(reg);
     }
 
 
     @Override
     public void rand(int vx, int val) {
-        int rand = ThreadLocalRandom.current().nextInt(256);
+        writes++;
+        int rand = random.nextByte();
         cpuState.writeRegister(vx, val & rand);
     }
 
 
     @Override
     public void draw(int vx, int vy, int val) {
-        // Quirk - clipping should be configurable
-        int x = cpuState.readRegister(vx) % Config.get().width;
-        int y = cpuState.readRegister(vy) % Config.get().height;
-        int[] sprite = bus.readRange(cpuState.I, val);
+        writes++;
+        boolean carry;
+        if (superChip) {
+            carry = drawSuperChip(cpuState.readRegister(vx), cpuState.readRegister(vy), val);
+        } else {
+            int x = cpuState.readRegister(vx) % frameBuffer.width();
+            int y = cpuState.readRegister(vy) % frameBuffer.height();
+            for (int i = 0; i < val; i++) {
+                sprite[i] = bus.read8(cpuState.I + i);
+            }
+            carry = frameBuffer.drawSprite(x, y, sprite, val);
+        }
 
-        boolean carry = window.setSprite(x, y, sprite);
         cpuState.writeRegister(0xF, (carry) ? 1 : 0);
-        // Quirk should be configurable if we should stall
-        cpuState.waitingForDisplay = true;
+        if (displayWait) {
+            cpuState.waitingForDisplay = true;
+        }
+    }
+
+
+    /**
+     * Dxyn on the 128x64 buffer, where Dxy0 is a 16x16 sprite of two bytes per row. In low resolution every pixel
+     * is a 2x2 block, so rows are widened through DOUBLED and drawn twice at twice the coordinates.
+     */
+    private boolean drawSuperChip(int x, int y, int val) {
+        int width = frameBuffer.width();
+        int height = frameBuffer.height();
+        boolean big = val == 0;
+        int len = big ? 16 : val;
+        int spriteWidth = big ? 16 : 8;
+        int spriteBytes = big ? 32 : val;
+        int hiX = cpuState.hiRes ? x % width : (x % (width / 2)) * 2;
+        int hiY = cpuState.hiRes ? y % height : (y % (height / 2)) * 2;
+
+        // XO-CHIP draws one sprite per selected plane, stored one after another from I
+        boolean erased = false;
+        int addr = cpuState.I;
+        for (int plane = 0; plane < frameBuffer.planes(); plane++) {
+            if ((cpuState.planes & (1 << plane)) == 0) {
+                continue;
+            }
+            for (int i = 0; i < len; i++) {
+                sprite[i] = big ? bus.read16(addr + 2 * i) : bus.read8(addr + i);
+            }
+            addr += spriteBytes;
+            if (cpuState.hiRes) {
+                erased |= frameBuffer.drawSprite(hiX, hiY, sprite, len, spriteWidth, plane);
+                continue;
+            }
+
+            // Backwards so every row is read before the doubled rows overwrite it
+            for (int i = len - 1; i >= 0; i--) {
+                int row = sprite[i];
+                int wide = big ? (DOUBLED[row >>> 8] << 16) | DOUBLED[row & 0xFF] : DOUBLED[row];
+                sprite[2 * i] = wide;
+                sprite[2 * i + 1] = wide;
+            }
+            erased |= frameBuffer.drawSprite(hiX, hiY, sprite, 2 * len, 2 * spriteWidth, plane);
+        }
+        return erased;
     }
 
 
     @Override
     public void skipIfPressed(int vx) {
         if (keypad.isPressed(cpuState.readRegister(vx))) {
-            cpuState.incrementPC();
+            skip();
         }
     }
 
@@ -242,7 +512,7 @@ public class Chip8Executor implements IInstructionExecutor {
     @Override
     public void skipIfNotPressed(int vx) {
         if (!keypad.isPressed(cpuState.readRegister(vx))) {
-            cpuState.incrementPC();
+            skip();
         }
     }
 
@@ -255,9 +525,13 @@ public class Chip8Executor implements IInstructionExecutor {
 
     @Override
     public void loadKeyToReg(int vx) {
+        writes++;
         int key = keypad.pollForKeyPress();
         if (key == -1) {
+            // Park on this instruction, the machine polls again once the keypad reports a release
             cpuState.decrementPC();
+            cpuState.waitingForKey = true;
+            cpuState.endBatch = true;
         } else {
             cpuState.writeRegister(vx, key);
         }
@@ -290,8 +564,60 @@ public class Chip8Executor implements IInstructionExecutor {
     }
 
 
+    @Override
+    public void loadBigSpriteToI(int vx) {
+        if (!superChip) {
+            return;
+        }
+        int x = cpuState.readRegister(vx) & 0xF;
+        cpuState.I = CpuState.BIG_FONT_START + (10 * x);
+    }
+
+
+    @Override
+    public void selectPlanes(int n) {
+        if (!xoChip) {
+            return;
+        }
+        writes++;
+        cpuState.planes = n & 0x3;
+    }
+
+
+    @Override
+    public void loadAudioPattern() {
+        if (!xoChip) {
+            return;
+        }
+        writes++;
+        int addr = cpuState.I;
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | bus.read8(addr + i);
+            low = (low << 8) | bus.read8(addr + 8 + i);
+        }
+        cpuState.audioPatternHigh = high;
+        cpuState.audioPatternLow = low;
+        cpuState.patternLoaded = true;
+        cpuState.audioChanged = true;
+    }
+
+
+    @Override
+    public void loadPitch(int vx) {
+        if (!xoChip) {
+            return;
+        }
+        writes++;
+        cpuState.pitch = cpuState.readRegister(vx);
+        cpuState.audioChanged = true;
+    }
+
+
     @Override
     public void loadRegBcdToI(int vx) {
+        writes++;
         int val = cpuState.readRegister(vx);
         int ones = val % 10;
         int tens = (val / 10) % 10;
@@ -304,11 +630,14 @@ public class Chip8Executor implements IInstructionExecutor {
 
     @Override
     public void loadRegistersToI(int vx) {
+        writes++;
         for (int reg = 0; reg <= vx; reg++) {
             int val = cpuState.readRegister(reg);
-            bus.write8(cpuState.I, val);
-            // CHIP-8 Quirk, I is incremented
-            cpuState.I++;
+            bus.write8(cpuState.I + reg, val);
+        }
+        // CHIP-8 Quirk, I is incremented
+        if (memoryIncrementsI) {
+            cpuState.I += vx + 1;
         }
     }
 
@@ -316,10 +645,66 @@ public class Chip8Executor implements IInstructionExecutor {
     @Override
     public void loadIToRegisters(int vx) {
         for (int reg = 0; reg <= vx; reg++) {
-            int val = bus.read8(cpuState.I);
+            int val = bus.read8(cpuState.I + reg);
             cpuState.writeRegister(reg, val);
-            // CHIP-8 Quirk, I is incremented
-            cpuState.I++;
         }
+        // CHIP-8 Quirk, I is incremented
+        if (memoryIncrementsI) {
+            cpuState.I += vx + 1;
+        }
+    }
+
+
+    @Override
+    public void saveFlags(int vx) {
+        if (!superChip) {
+            return;
+        }
+        writes++;
+        for (int reg = 0; reg <= vx; reg++) {
+            cpuState.rplFlags[reg] = (byte) cpuState.readRegister(reg);
+        }
+    }
+
+
+    @Override
+    public void loadFlags(int vx) {
+        if (!superChip) {
+            return;
+        }
+        for (int reg = 0; reg <= vx; reg++) {
+            cpuState.writeRegister(reg, cpuState.rplFlags[reg]);
+        }
+    }
+
+
+    // XO-CHIP skips step over the whole of a four byte F000 nnnn
+    private void skip() {
+        int pc = cpuState.pc;
+        if (xoChip && pc + 1 < bus.addressSpaceSize() && bus.read16(pc) == 0xF000) {
+            cpuState.incrementPC();
+        }
+        cpuState.incrementPC();
+    }
+
+
+    /**
+     * Called after every backward jump. The first time records the registers, the next time at the same jump
+     * compares: with nothing written in between and the registers back where they were, the loop is a pure function
+     * of state that is frozen until the next timer tick, so it will keep repeating exactly.
+     */
+    private void checkIdleLoop(int jumpAddress) {
+        int probe = (jumpAddress >> 1) & (PROBES - 1);
+        if (probeJumps[probe] == jumpAddress && probeWrites[probe] == writes
+                && cpuState.registersEqual(probeRegisters[probe])) {
+            idleLoopLength = (int) (instructions - probeInstructions[probe]);
+            cpuState.endBatch = true;
+            detectIdleLoops = false;
+            return;
+        }
+        probeJumps[probe] = jumpAddress;
+        probeInstructions[probe] = instructions;
+        probeWrites[probe] = writes;
+        cpuState.captureRegisters(probeRegisters[probe]);
     }
 }
@@ -0,0 +1,12 @@
+package pantoja.chip8.instructions;
+
+import pantoja.chip8.memory.CpuState;
+
+/**
+ * A basic block translated to JVM bytecode by the BlockCompiler. Implementations are hidden classes generated at
+ * runtime, each one replaying a fixed run of CHIP-8 instructions with their operands baked in as constants.
+ */
+interface CompiledBlock {
+
+    void run(CpuState cpuState, IInstructionExecutor executor);
+}
@@ -1,6 +1,8 @@
 package pantoja.chip8.instructions;
 
-public class Decoder {
+import pantoja.chip8.memory.CpuState;
+
+public class Decoder implements IDecoder {
     IInstructionExecutor executor;
 
 
@@ -9,6 +11,12 @@ public class Decoder {
     }
 
 
+    @Override
+    public void step(CpuState cpuState) {
+        decode(cpuState.fetchInstruction());
+    }
+
+
     public void decode(int instruction) {
         int op = (instruction & 0xF000) >> 12;
         int vx = (instruction & 0x0F00) >> 8;
@@ -21,9 +29,22 @@ public class Decoder {
 
         switch (op) {
             case 0x0 -> {
+                if ((instruction & 0xFFF0) == 0x00C0) {
+                    executor.scrollDown(n);
+                    return;
+                }
+                if ((instruction & 0xFFF0) == 0x00D0) {
+                    executor.scrollUp(n);
+                    return;
+                }
                 switch (nn) {
                     case 0xE0 -> executor.cls();
                     case 0xEE -> executor.ret();
+                    case 0xFB -> executor.scrollRight();
+                    case 0xFC -> executor.scrollLeft();
+                    case 0xFD -> executor.exit();
+                    case 0xFE -> executor.lowRes();
+                    case 0xFF -> executor.highRes();
                     default -> executor.sys(nnn);
                 }
             }
@@ -32,8 +53,12 @@ public class Decoder {
             case 0x3 -> executor.skipIfEqualToVal(vx, nn);
             case 0x4 -> executor.skipIfNotEqualToVal(vx, nn);
             case 0x5 -> {
-                if (n == 0) executor.skipIfEqual(vx, vy);
-                else executor.nop();
+                switch (n) {
+                    case 0x0 -> executor.skipIfEqual(vx, vy);
+                    case 0x2 -> executor.saveRange(vx, vy);
+                    case 0x3 -> executor.loadRange(vx, vy);
+                    default -> executor.nop();
+                }
             }
             case 0x6 -> executor.loadValIntoReg(vx, nn);
             case 0x7 -> executor.addValToReg(vx, nn);
@@ -68,15 +93,28 @@ public class Decoder {
             }
             case 0xF -> {
                 switch (nn) {
+                    case (0x00) -> {
+                        if (vx == 0) executor.loadLongI();
+                        else executor.nop();
+                    }
+                    case (0x01) -> executor.selectPlanes(vx);
+                    case (0x02) -> {
+                        if (vx == 0) executor.loadAudioPattern();
+                        else executor.nop();
+                    }
                     case (0x07) -> executor.loadFromDisplayTimer(vx);
                     case (0x0A) -> executor.loadKeyToReg(vx);
                     case (0x15) -> executor.loadToDisplayTimer(vx);
                     case (0x18) -> executor.loadToSoundTimer(vx);
                     case (0x1E) -> executor.addToAddress(vx);
                     case (0x29) -> executor.loadSpriteToI(vx);
+                    case (0x30) -> executor.loadBigSpriteToI(vx);
                     case (0x33) -> executor.loadRegBcdToI(vx);
+                    case (0x3A) -> executor.loadPitch(vx);
                     case (0x55) -> executor.loadRegistersToI(vx);
                     case (0x65) -> executor.loadIToRegisters(vx);
+                    case (0x75) -> executor.saveFlags(vx);
+                    case (0x85) -> executor.loadFlags(vx);
                     default -> executor.nop();
                 }
             }
@@ -0,0 +1,96 @@
+package pantoja.chip8.instructions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed capacity ring buffer of the most recently executed instructions.
+ * Entries are kept in primitive arrays so recording never allocates, formatting only happens when dumped.
+ */
+public class ExecutionTrace {
+    private final int[] addresses;
+    private final int[] opcodes;
+    private final int[] indexRegisters;
+    private final int mask;
+    private long recorded;
+
+
+    /**
+     * @param capacity Number of instructions to keep, rounded up to the next power of two
+     */
+    public ExecutionTrace(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+
+        addresses = new int[size];
+        opcodes = new int[size];
+        indexRegisters = new int[size];
+        mask = size - 1;
+        recorded = 0;
+    }
+
+
+    public void record(int pc, int instruction, int I) {
+        int slot = (int) (recorded & mask);
+        addresses[slot] = pc;
+        opcodes[slot] = instruction & 0xFFFF;
+        indexRegisters[slot] = I;
+        recorded++;
+    }
+
+
+    public void clear() {
+        recorded = 0;
+    }
+
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+
+    public int size() {
+        return (int) Math.min(recorded, capacity());
+    }
+
+
+    public long totalRecorded() {
+        return recorded;
+    }
+
+
+    /**
+     * Disassembles the buffered entries, oldest first, annotating each row with the I register at execution
+     */
+    public List<Instruction> getInstructions() {
+        int size = size();
+        long first = recorded - size;
+
+        InstructionDisassembler disassembler = new InstructionDisassembler();
+        Decoder decoder = new Decoder(disassembler);
+        for (int i = 0; i < size; i++) {
+            decoder.decode(opcodes[(int) ((first + i) & mask)]);
+        }
+
+        List<String> assembly = disassembler.getAssembly();
+        List<Instruction> output = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int slot = (int) ((first + i) & mask);
+            output.add(
+                    new Instruction(
+                            addresses[slot],
+                            String.format("%04X", opcodes[slot]),
+                            String.format("%-20s I=0x%04X", assembly.get(i), indexRegisters[slot])
+                    )
+            );
+        }
+        return output;
+    }
+
+
+    public String getTraceWindow() {
+        int last = (recorded == 0) ? -1 : addresses[(int) ((recorded - 1) & mask)];
+        return Instruction.getInstructionWindow(getInstructions(), last);
+    }
+}
@@ -0,0 +1,54 @@
+package pantoja.chip8.instructions;
+
+import pantoja.chip8.memory.CpuState;
+
+/**
+ * Something that can execute the instruction at the program counter. The plain Decoder decodes every
+ * fetch from scratch, the CachedDecoder reuses previously decoded instructions.
+ */
+public interface IDecoder {
+
+    /**
+     * Fetches the instruction at PC, advances PC and dispatches the instruction to the executor
+     */
+    void step(CpuState cpuState);
+
+
+    /**
+     * Executes up to budget instructions, stopping early when the CPU stalls waiting for the display or the
+     * executor sets endBatch
+     *
+     * @return The number of instructions executed
+     */
+    default int run(CpuState cpuState, int budget) {
+        int executed = 0;
+        while (executed < budget && !cpuState.waitingForDisplay && !cpuState.endBatch) {
+            step(cpuState);
+            executed++;
+        }
+        return executed;
+    }
+
+
+    /**
+     * Drops anything derived from memory contents, needed when memory is changed without going through the bus.
+     * Decoders that keep nothing have nothing to drop.
+     */
+    default void invalidateAll() {
+    }
+
+
+    /**
+     * Quirks.* bits of the profile about to run, called on every reset after the executor has been given them.
+     * Only decoders that bake quirk dependent behaviour into generated code care.
+     */
+    default void setQuirks(int quirks) {
+    }
+
+
+    /**
+     * Stops listening to the bus so a discarded decoder can be collected
+     */
+    default void detach() {
+    }
+}
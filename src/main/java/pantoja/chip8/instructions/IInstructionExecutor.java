@@ -9,7 +9,7 @@ package pantoja.chip8.instructions;
 public interface IInstructionExecutor {
 
     /**
-     * A helper function, right now the only use case is the disassembler/dumping instructions
+     * A helper function, used by the disassembler and the optional execution trace
      */
     void storeInstruction(int instruction);
 
@@ -42,6 +42,49 @@ public interface IInstructionExecutor {
      */
     void ret();
 
+    /**
+     * 00Cn - SCD nibble (SUPER-CHIP)
+     * Scroll the display down n pixels.
+     * In low resolution mode the display scrolls by n low resolution pixels.
+     */
+    void scrollDown(int n);
+
+    /**
+     * 00Dn - SCU nibble (XO-CHIP)
+     * Scroll the selected planes up n pixels.
+     */
+    void scrollUp(int n);
+
+    /**
+     * 00FB - SCR (SUPER-CHIP)
+     * Scroll the display right 4 pixels.
+     */
+    void scrollRight();
+
+    /**
+     * 00FC - SCL (SUPER-CHIP)
+     * Scroll the display left 4 pixels.
+     */
+    void scrollLeft();
+
+    /**
+     * 00FD - EXIT (SUPER-CHIP)
+     * Exit the interpreter, the CPU stops executing.
+     */
+    void exit();
+
+    /**
+     * 00FE - LOW (SUPER-CHIP)
+     * Switch to the 64x32 low resolution mode and clear the display.
+     */
+    void lowRes();
+
+    /**
+     * 00FF - HIGH (SUPER-CHIP)
+     * Switch to the 128x64 high resolution mode and clear the display.
+     */
+    void highRes();
+
     /**
      * 1nnn - JP addr
      * Jump to location nnn.
@@ -78,6 +121,20 @@ public interface IInstructionExecutor {
      */
     void skipIfEqual(int vx, int vy);
 
+    /**
+     * 5xy2 - SAVE Vx - Vy (XO-CHIP)
+     * Store registers Vx through Vy in memory starting at location I, in reverse order when x > y.
+     * I is not changed.
+     */
+    void saveRange(int vx, int vy);
+
+    /**
+     * 5xy3 - LOAD Vx - Vy (XO-CHIP)
+     * Read registers Vx through Vy from memory starting at location I, in reverse order when x > y.
+     * I is not changed.
+     */
+    void loadRange(int vx, int vy);
+
     /**
      * 6xkk - LD Vx, byte
      * Set Vx = kk.
@@ -139,7 +196,7 @@ public interface IInstructionExecutor {
     /**
      * 8xy6 - SHR Vx {, Vy}
      * Set Vx = Vx SHR 1.
-     * If quirk enabled Vy = Vx SHR 1
+     * With Quirks.SHIFT_USES_VY it is Vx = Vy SHR 1
      * If the least-significant bit of Vx is 1, then VF is set to 1, otherwise 0. Then Vx is divided by 2.
      */
     void shiftRight(int vx, int vy);
@@ -154,7 +211,7 @@ public interface IInstructionExecutor {
     /**
      * 8xyE - SHL Vx {, Vy}
      * Set Vx = Vx SHL 1.
-     * If quirk enabled Vy = Vx SHL 1
+     * With Quirks.SHIFT_USES_VY it is Vx = Vy SHL 1
      * If the most-significant bit of Vx is 1, then VF is set to 1, otherwise to 0. Then Vx is multiplied by 2.
      */
     void shiftLeft(int vx, int vy);
@@ -173,10 +230,18 @@ public interface IInstructionExecutor {
      */
     void loadValToI(int val);
 
+    /**
+     * F000 nnnn - LD I, long (XO-CHIP)
+     * Set I = nnnn, the 16 bit word following the instruction, which is skipped.
+     * Skip instructions step over all four bytes of it.
+     */
+    void loadLongI();
+
     /**
      * Bnnn - JP V0, addr
      * Jump to location nnn + V0.
      * The program counter is set to nnn plus the value of V0.
+     * With Quirks.JUMP_USES_VX this is Bxnn, jumping to xnn plus Vx.
      */
     void jumpPlusV0(int addr);
 
@@ -196,6 +261,7 @@ public interface IInstructionExecutor {
      * Sprites are XORed onto the existing screen.
      * If this causes any pixels to be erased, VF is set to 1, otherwise it is set to 0.
      * The sprite wraps when positioned so part of it is outside the coordinates of the display
+     * SUPER-CHIP: Dxy0 draws a 16x16 sprite from 32 bytes, two per row.
      */
     void draw(int vx, int vy, int val);
 
@@ -257,6 +323,33 @@ public interface IInstructionExecutor {
      */
     void loadSpriteToI(int vx);
 
+    /**
+     * Fx30 - LD HF, Vx (SUPER-CHIP)
+     * Set I = location of the 8x10 sprite for digit Vx.
+     */
+    void loadBigSpriteToI(int vx);
+
+    /**
+     * F002 - AUDIO (XO-CHIP)
+     * Load the 16 byte audio pattern buffer from memory starting at location I.
+     * The 128 bits are played one after another, most significant bit of the first byte first, while the sound
+     * timer is running.
+     */
+    void loadAudioPattern();
+
+    /**
+     * Fn01 - PLANE n (XO-CHIP)
+     * Select the bit planes n (0 to 3) that drawing, clearing and scrolling act on.
+     * Dxyn draws one sprite per selected plane, the sprites stored one after another from I.
+     */
+    void selectPlanes(int n);
+
+    /**
+     * Fx3A - PITCH Vx (XO-CHIP)
+     * Set the audio pattern playback rate to 4000 * 2^((Vx - 64) / 48) bits per second.
+     */
+    void loadPitch(int vx);
+
     /**
      * Fx33 - LD B, Vx
      * Store BCD representation of Vx in memory locations I, I+1, and I+2.
@@ -269,7 +362,7 @@ public interface IInstructionExecutor {
      * Fx55 - LD [I], Vx
      * Store registers V0 through Vx in memory starting at location I.
      * The interpreter copies the values of registers V0 through Vx into memory, starting at the address in I.
-     * Unimplemented quirk where I is incremented after each write -
+     * Quirks.MEMORY_INCREMENTS_I leaves I incremented past the last write -
      * <a href="https://tobiasvl.github.io/blog/write-a-chip-8-emulator/#fx55-and-fx65-store-and-load-memory">blog</a>
      */
     void loadRegistersToI(int vx);
@@ -278,8 +371,20 @@ public interface IInstructionExecutor {
      * Fx65 - LD Vx, [I]
      * Read registers V0 through Vx from memory starting at location I.
      * The interpreter reads values from memory starting at location I into registers V0 through Vx.
-     * Unimplemented quirk where I is incremented after each write -
+     * Quirks.MEMORY_INCREMENTS_I leaves I incremented past the last read -
      * <a href="https://tobiasvl.github.io/blog/write-a-chip-8-emulator/#fx55-and-fx65-store-and-load-memory">blog</a>
      */
     void loadIToRegisters(int vx);
+
+    /**
+     * Fx75 - LD R, Vx (SUPER-CHIP)
+     * Store registers V0 through Vx in the RPL user flags.
+     */
+    void saveFlags(int vx);
+
+    /**
+     * Fx85 - LD Vx, R (SUPER-CHIP)
+     * Read registers V0 through Vx from the RPL user flags.
+     */
+    void loadFlags(int vx);
 }
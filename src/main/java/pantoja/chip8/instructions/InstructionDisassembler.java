@@ -49,6 +49,11 @@ public class InstructionDisassembler implements IInstructionExecutor {
     }
 
 
+    public List<String> getAssembly() {
+        return assembly;
+    }
+
+
     @Override
     public void storeInstruction(int instruction) {
         instructions.add(String.format("%04X", instruction & 0xFFFF));
@@ -83,6 +88,55 @@ public class InstructionDisassembler implements IInstructionExecutor {
     }
 
 
+    // 00Cn - SCD nibble
+    @Override
+    public void scrollDown(int n) {
+        assembly.add("SCD " + Integer.toHexString(n));
+    }
+
+
+    // 00Dn - SCU nibble
+    @Override
+    public void scrollUp(int n) {
+        assembly.add("SCU " + Integer.toHexString(n));
+    }
+
+
+    // 00FB - SCR
+    @Override
+    public void scrollRight() {
+        assembly.add("SCR");
+    }
+
+
+    // 00FC - SCL
+    @Override
+    public void scrollLeft() {
+        assembly.add("SCL");
+    }
+
+
+    // 00FD - EXIT
+    @Override
+    public void exit() {
+        assembly.add("EXIT");
+    }
+
+
+    // 00FE - LOW
+    @Override
+    public void lowRes() {
+        assembly.add("LOW");
+    }
+
+
+    // 00FF - HIGH
+    @Override
+    public void highRes() {
+        assembly.add("HIGH");
+    }
+
+
     // 1nnn - JP addr
     @Override
     public void jump(int addr) {
@@ -118,6 +172,20 @@ public class InstructionDisassembler implements IInstructionExecutor {
     }
 
 
+    // 5xy2 - SAVE Vx - Vy
+    @Override
+    public void saveRange(int vx, int vy) {
+        assembly.add("SAVE v" + vx + " - v" + vy);
+    }
+
+
+    // 5xy3 - LOAD Vx - Vy
+    @Override
+    public void loadRange(int vx, int vy) {
+        assembly.add("LOAD v" + vx + " - v" + vy);
+    }
+
+
     // 7xkk - ADD Vx, byte
     @Override
     public void addValToReg(int vx, int val) {
@@ -195,6 +263,13 @@ public class InstructionDisassembler implements IInstructionExecutor {
     }
 
 
+    // F000 nnnn - LD I, long, the address is the next word
+    @Override
+    public void loadLongI() {
+        assembly.add("LD I, LONG");
+    }
+
+
     // Bnnn - JP V0, addr
     @Override
     public void jumpPlusV0(int addr) {
@@ -279,6 +354,34 @@ public class InstructionDisassembler implements IInstructionExecutor {
     }
 
 
+    // Fx30 - LD HF, Vx
+    @Override
+    public void loadBigSpriteToI(int vx) {
+        assembly.add("LD HF, v" + vx);
+    }
+
+
+    // Fn01 - PLANE n
+    @Override
+    public void selectPlanes(int n) {
+        assembly.add("PLANE " + n);
+    }
+
+
+    // F002 - AUDIO
+    @Override
+    public void loadAudioPattern() {
+        assembly.add("AUDIO");
+    }
+
+
+    // Fx3A - PITCH Vx
+    @Override
+    public void loadPitch(int vx) {
+        assembly.add("PITCH v" + vx);
+    }
+
+
     // Fx33 - LD B, Vx
     @Override
     public void loadRegBcdToI(int vx) {
@@ -300,6 +403,20 @@ public class InstructionDisassembler implements IInstructionExecutor {
     }
 
 
+    // Fx75 - LD R, Vx
+    @Override
+    public void saveFlags(int vx) {
+        assembly.add("LD R, v" + vx);
+    }
+
+
+    // Fx85 - LD Vx, R
+    @Override
+    public void loadFlags(int vx) {
+        assembly.add("LD v" + vx + ", R");
+    }
+
+
     // Fx0A - LD Vx, K
     @Override
     public void loadKeyToReg(int vx) {
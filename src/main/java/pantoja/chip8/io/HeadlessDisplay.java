@@ -0,0 +1,21 @@
+package pantoja.chip8.io;
+
+import pantoja.chip8.memory.FrameBuffer;
+
+/**
+ * Display for runs without a screen, it only counts the frames it was handed
+ */
+public class HeadlessDisplay implements IDisplay {
+    private long frames;
+
+
+    @Override
+    public void frameReady(FrameBuffer frameBuffer) {
+        frames++;
+    }
+
+
+    public long getFrames() {
+        return frames;
+    }
+}
@@ -0,0 +1,24 @@
+package pantoja.chip8.io;
+
+/**
+ * Keypad for runs without a keyboard, no key is ever pressed so Fx0A waits forever
+ */
+public class HeadlessKeypad implements IKeypad {
+
+    @Override
+    public boolean isPressed(int key) {
+        return false;
+    }
+
+
+    @Override
+    public int pollForKeyPress() {
+        return -1;
+    }
+
+
+    @Override
+    public boolean keyReleasePending() {
+        return false;
+    }
+}
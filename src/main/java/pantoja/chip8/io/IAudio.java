@@ -0,0 +1,33 @@
+package pantoja.chip8.io;
+
+/**
+ * Audio output driven by the CHIP-8 sound timer
+ */
+public interface IAudio {
+
+    /**
+     * Called once per timer tick with whether the sound timer is still running
+     */
+    void setActive(boolean active);
+
+
+    /**
+     * Called once per timer tick after setActive, gives the implementation a chance to feed its output
+     */
+    void update();
+
+
+    /**
+     * XO-CHIP: play the 128 bit pattern, first bit at the top of high, at the rate the pitch register selects
+     * instead of the plain beep. Called at a timer tick whenever the program changed either.
+     */
+    default void setPattern(long high, long low, int pitch) {
+    }
+
+
+    /**
+     * Back to the plain beep, after a reset or restoring a state where no pattern was loaded
+     */
+    default void clearPattern() {
+    }
+}
@@ -0,0 +1,12 @@
+package pantoja.chip8.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for rendered audio, signed 8 bit mono samples at ToneGenerator.SAMPLE_RATE
+ */
+public interface IAudioSink extends Closeable {
+
+    void write(byte[] samples, int offset, int length) throws IOException;
+}
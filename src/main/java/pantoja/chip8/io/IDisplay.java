@@ -0,0 +1,12 @@
+package pantoja.chip8.io;
+
+import pantoja.chip8.memory.FrameBuffer;
+
+/**
+ * Presents the machine's frame buffer. The core calls this once per timer tick, implementations decide how (or if)
+ * the frame reaches a screen.
+ */
+public interface IDisplay {
+
+    void frameReady(FrameBuffer frameBuffer);
+}
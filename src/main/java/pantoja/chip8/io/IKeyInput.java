@@ -0,0 +1,12 @@
+package pantoja.chip8.io;
+
+/**
+ * Where key events go, whatever produces them: keyboard bindings, a replay file or a program driving the emulator
+ */
+public interface IKeyInput {
+
+    void press(int key);
+
+
+    void release(int key);
+}
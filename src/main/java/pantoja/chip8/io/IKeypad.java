@@ -0,0 +1,38 @@
+package pantoja.chip8.io;
+
+/**
+ * The CPU's view of the 16 key hex keypad
+ */
+public interface IKeypad {
+
+    boolean isPressed(int key);
+
+
+    /**
+     * Fx0A support, the first call starts a wait and every call returns -1 until a key has been released
+     *
+     * @return The released key, or -1 while still waiting
+     */
+    int pollForKeyPress();
+
+
+    /**
+     * false when pollForKeyPress is certain to return -1, so a CPU parked on Fx0A can check without polling.
+     * Keypads that can't tell cheaply keep the default and get polled.
+     */
+    default boolean keyReleasePending() {
+        return true;
+    }
+
+
+    /**
+     * Key and Fx0A wait state packed into an int for snapshots, keypads that hold no state can keep the default
+     */
+    default int saveState() {
+        return 0;
+    }
+
+
+    default void restoreState(int state) {
+    }
+}
@@ -0,0 +1,70 @@
+package pantoja.chip8.io;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live key state, written by whatever produces key events (the Swing key bindings, a replay, a headless driver) and
+ * read without a lock. The CPU never sees it directly, the host latches pressedMask and takeReleased into a
+ * LatchedKeypad once per frame, so Ex9E and Fx0A only ever touch the latched copy.
+ * <p>
+ * Bits 0-15 of one int are the keys, and every change is a compare and set of the whole word so presses and releases
+ * from different threads never lose each other. Releases also pile up in a second word until the host takes them, so
+ * a key pressed and released between two latches still reaches the CPU.
+ */
+public class Keypad implements IKeyInput {
+    private final AtomicInteger keys = new AtomicInteger();
+    // Bits 0-15 are the keys released since the last take, bits 16-20 the most recent of them plus one
+    private final AtomicInteger released = new AtomicInteger();
+
+
+    @Override
+    public void press(int key) {
+        if (key < 0 || key >= 16) {
+            return;
+        }
+        int bit = 1 << key;
+        int current;
+        do {
+            current = keys.get();
+            if ((current & bit) != 0) {
+                return;
+            }
+        } while (!keys.compareAndSet(current, current | bit));
+    }
+
+
+    @Override
+    public void release(int key) {
+        if (key < 0 || key >= 16) {
+            return;
+        }
+        int bit = 1 << key;
+        int current;
+        do {
+            current = keys.get();
+            if ((current & bit) == 0) {
+                return;
+            }
+        } while (!keys.compareAndSet(current, current & ~bit));
+        int pending;
+        do {
+            pending = released.get();
+        } while (!released.compareAndSet(pending, (pending & 0xFFFF) | bit | ((key + 1) << 16)));
+    }
+
+
+    /**
+     * The keys held right now, bit n for key n
+     */
+    public int pressedMask() {
+        return keys.get();
+    }
+
+
+    /**
+     * The keys released since the previous call, in the form LatchedKeypad.latch takes, and starts collecting anew
+     */
+    public int takeReleased() {
+        return released.getAndSet(0);
+    }
+}
@@ -0,0 +1,83 @@
+package pantoja.chip8.io;
+
+/**
+ * The keypad as the CPU sees it when input only changes at frame boundaries.
+ * <p>
+ * The host latches the current key mask once per frame, along with the keys released since the previous latch, and
+ * between frames the keys look frozen to the program no matter when the real events arrive. Because what the CPU
+ * sees depends only on what is latched at each frame, a run can be reproduced exactly from the list of latches.
+ * Fx0A completes on the first frame a key is seen released, with the most recently released key if there were several.
+ */
+public class LatchedKeypad implements IKeypad {
+    private int keys;
+    private boolean waitingForKeyPress;
+    private int releasedSinceWait = -1;
+
+
+    /**
+     * Makes the given mask, bit n for key n, the state the CPU sees until the next latch. released is what
+     * Keypad.takeReleased returned: bits 0-15 the keys released since the last latch and bits 16-20 the latest of
+     * them plus one. A key that went down and up again in between reads as held for this one frame.
+     */
+    public void latch(int mask, int released) {
+        int latest = ((released >>> 16) & 0x1F) - 1;
+        if (waitingForKeyPress && latest != -1) {
+            releasedSinceWait = latest;
+        }
+        keys = (mask | (released & ~keys)) & 0xFFFF;
+    }
+
+
+    public int getKeys() {
+        return keys;
+    }
+
+
+    @Override
+    public boolean isPressed(int key) {
+        return key >= 0 && key < 16 && (keys & (1 << key)) != 0;
+    }
+
+
+    // The first call starts the wait and the released key is returned once
+    @Override
+    public int pollForKeyPress() {
+        if (!waitingForKeyPress) {
+            waitingForKeyPress = true;
+            releasedSinceWait = -1;
+            return -1;
+        }
+        if (releasedSinceWait == -1) {
+            return -1;
+        }
+        waitingForKeyPress = false;
+        int key = releasedSinceWait;
+        releasedSinceWait = -1;
+        return key;
+    }
+
+
+    @Override
+    public boolean keyReleasePending() {
+        return !waitingForKeyPress || releasedSinceWait != -1;
+    }
+
+
+    // Bits 0-15 are the keys, bit 16 is set while Fx0A waits and bits 20-24 hold the released key plus one
+    @Override
+    public int saveState() {
+        int state = keys;
+        if (waitingForKeyPress) {
+            state |= 1 << 16;
+        }
+        return state | ((releasedSinceWait + 1) << 20);
+    }
+
+
+    @Override
+    public void restoreState(int state) {
+        keys = state & 0xFFFF;
+        waitingForKeyPress = (state & (1 << 16)) != 0;
+        releasedSinceWait = ((state >>> 20) & 0x1F) - 1;
+    }
+}
@@ -0,0 +1,79 @@
+package pantoja.chip8.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.CRC32C;
+
+/**
+ * Audio rendered against emulated time instead of played: every timer tick produces exactly one tick's worth of
+ * samples (735 at 60Hz) into a sink, however fast the machine is being run. The same ROM, seed and input always give
+ * the same samples, so a run can be rendered faster than real time and its audio compared by hash.
+ */
+public final class RenderedAudio implements IAudio {
+    private final ToneGenerator tone;
+    private final IAudioSink sink;
+    private final int timerHz;
+    private final byte[] samples;
+    private final CRC32C crc = new CRC32C();
+    private boolean active;
+    private long ticks;
+    private long rendered;
+
+
+    public RenderedAudio(ToneGenerator tone, IAudioSink sink, int timerHz) {
+        this.tone = tone;
+        this.sink = sink;
+        this.timerHz = timerHz;
+        this.samples = new byte[(ToneGenerator.SAMPLE_RATE + timerHz - 1) / timerHz];
+    }
+
+
+    @Override
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+
+    @Override
+    public void setPattern(long high, long low, int pitch) {
+        tone.setPattern(high, low, pitch);
+    }
+
+
+    @Override
+    public void clearPattern() {
+        tone.clearPattern();
+    }
+
+
+    // Rates that don't divide evenly get one sample more on some ticks, so no drift builds up over a long run
+    @Override
+    public void update() {
+        ticks++;
+        int length = (int) (ticks * ToneGenerator.SAMPLE_RATE / timerHz - rendered);
+        tone.render(samples, 0, length, active);
+        crc.update(samples, 0, length);
+        rendered += length;
+        try {
+            sink.write(samples, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write audio", e);
+        }
+    }
+
+
+    /**
+     * Number of samples rendered so far
+     */
+    public long samples() {
+        return rendered;
+    }
+
+
+    /**
+     * CRC32C of every sample rendered so far
+     */
+    public int hash() {
+        return (int) crc.getValue();
+    }
+}
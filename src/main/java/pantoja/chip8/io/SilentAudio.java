@@ -0,0 +1,24 @@
+package pantoja.chip8.io;
+
+/**
+ * Audio for runs without a sound device, it only remembers whether the tone should be playing
+ */
+public class SilentAudio implements IAudio {
+    private boolean active;
+
+
+    @Override
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+
+    @Override
+    public void update() {
+    }
+
+
+    public boolean isActive() {
+        return active;
+    }
+}
@@ -0,0 +1,130 @@
+package pantoja.chip8.io;
+
+import java.util.Arrays;
+
+/**
+ * The beep as a stream of signed 8 bit samples, one period rendered into a wavetable up front and copied out from
+ * there. Live playback and offline rendering share it, so both produce the same samples.
+ * <p>
+ * XO-CHIP programs can replace the beep with a 128 bit pattern played at a pitch dependent rate. The pattern is
+ * resampled with a 32 bit phase accumulator covering the whole pattern, so the top 7 bits are the bit being played,
+ * stepped by an increment looked up per pitch from a table built once.
+ * <p>
+ * While the tone is off the output is silence and the phase goes back to the start, every beep starts the same way.
+ */
+public final class ToneGenerator {
+    public static final int SAMPLE_RATE = 44100;
+
+    // Phase increment per sample for each pitch, 2^32 being the whole 128 bit pattern
+    private static final int[] PATTERN_STEPS = new int[256];
+
+    static {
+        for (int pitch = 0; pitch < 256; pitch++) {
+            double bitsPerSecond = 4000 * Math.pow(2, (pitch - 64) / 48.0);
+            PATTERN_STEPS[pitch] = (int) Math.round(bitsPerSecond / SAMPLE_RATE * (1L << 25));
+        }
+    }
+
+    private final byte[] wavetable;
+    private final byte amplitude;
+    private int phase;
+
+    private boolean patternMode;
+    private long patternHigh;
+    private long patternLow;
+    private int patternStep;
+    private int patternPhase;
+
+
+    public ToneGenerator(int frequencyHz, int amplitude, boolean squareWave) {
+        if (frequencyHz <= 0)
+            throw new IllegalArgumentException("frequencyHz must be > 0");
+        if (amplitude < 0 || amplitude > 127)
+            throw new IllegalArgumentException("amplitude must be in [0,127]");
+
+        this.amplitude = (byte) amplitude;
+        int periodSamples = Math.max(1, Math.round(SAMPLE_RATE / (float) frequencyHz));
+        wavetable = squareWave ? squareWave(periodSamples, amplitude) : triangleWave(periodSamples, amplitude);
+    }
+
+
+    /**
+     * Plays the 128 bit pattern, first bit at the top of high, instead of the beep
+     */
+    public void setPattern(long high, long low, int pitch) {
+        patternMode = true;
+        patternHigh = high;
+        patternLow = low;
+        patternStep = PATTERN_STEPS[pitch & 0xFF];
+    }
+
+
+    public void clearPattern() {
+        patternMode = false;
+    }
+
+
+    /**
+     * Writes the next length samples into out starting at offset, the tone when on and silence otherwise
+     */
+    public void render(byte[] out, int offset, int length, boolean on) {
+        if (!on) {
+            Arrays.fill(out, offset, offset + length, (byte) 0);
+            phase = 0;
+            patternPhase = 0;
+            return;
+        }
+        if (patternMode) {
+            renderPattern(out, offset, length);
+            return;
+        }
+        int end = offset + length;
+        int pos = offset;
+        while (pos < end) {
+            int count = Math.min(end - pos, wavetable.length - phase);
+            System.arraycopy(wavetable, phase, out, pos, count);
+            pos += count;
+            phase += count;
+            if (phase == wavetable.length) {
+                phase = 0;
+            }
+        }
+    }
+
+
+    private void renderPattern(byte[] out, int offset, int length) {
+        byte high = amplitude;
+        byte low = (byte) -amplitude;
+        int p = patternPhase;
+        for (int i = offset; i < offset + length; i++) {
+            int bit = p >>> 25;
+            long word = (bit < 64) ? patternHigh : patternLow;
+            out[i] = ((word << (bit & 63)) < 0) ? high : low;
+            p += patternStep;
+        }
+        patternPhase = p;
+    }
+
+
+    private static byte[] triangleWave(int periodSamples, int amplitude) {
+        byte[] table = new byte[periodSamples];
+        int half = Math.max(1, periodSamples / 2);
+        for (int i = 0; i < periodSamples; i++) {
+            int value = (i < half)
+                    ? -amplitude + (2 * amplitude * i) / half
+                    : amplitude - (2 * amplitude * (i - half)) / half;
+            table[i] = (byte) value;
+        }
+        return table;
+    }
+
+
+    private static byte[] squareWave(int periodSamples, int amplitude) {
+        byte[] table = new byte[periodSamples];
+        int half = periodSamples / 2;
+        for (int i = 0; i < periodSamples; i++) {
+            table[i] = (byte) ((i < half) ? amplitude : -amplitude);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,91 @@
+package pantoja.chip8.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams samples into a mono 8 bit PCM WAV file through a FileChannel.
+ * <p>
+ * Samples go through one direct buffer that is written out whenever it fills, so nothing is allocated per write.
+ * The header is written up front with empty sizes and filled in on close.
+ */
+public final class WavFileSink implements IAudioSink {
+    private static final int HEADER_BYTES = 44;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private long dataBytes;
+
+
+    public WavFileSink(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader(0);
+        channel.position(HEADER_BYTES);
+    }
+
+
+    @Override
+    public void write(byte[] samples, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            // 8 bit WAV samples are unsigned, centred on 128
+            buffer.put((byte) (samples[i] ^ 0x80));
+        }
+        dataBytes += length;
+    }
+
+
+    /**
+     * Samples written so far
+     */
+    public long samples() {
+        return dataBytes;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+            writeHeader(dataBytes);
+        } finally {
+            channel.close();
+        }
+    }
+
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+    // RIFF sizes are 32 bit, a longer recording keeps playing but its sizes are capped
+    private void writeHeader(long data) throws IOException {
+        int dataSize = (int) Math.min(data, 0xFFFF_FFFFL - 36);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'}).putInt(36 + dataSize)
+                .put(new byte[]{'W', 'A', 'V', 'E'})
+                .put(new byte[]{'f', 'm', 't', ' '}).putInt(16)
+                .putShort((short) 1)                        // PCM
+                .putShort((short) 1)                        // mono
+                .putInt(ToneGenerator.SAMPLE_RATE)
+                .putInt(ToneGenerator.SAMPLE_RATE)          // bytes per second
+                .putShort((short) 1)                        // bytes per frame
+                .putShort((short) 8)                        // bits per sample
+                .put(new byte[]{'d', 'a', 't', 'a'}).putInt(dataSize);
+        header.flip();
+        channel.write(header, 0);
+    }
+}
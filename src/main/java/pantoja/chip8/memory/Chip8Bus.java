@@ -1,11 +1,19 @@
 package pantoja.chip8.memory;
 
+import java.util.Arrays;
+
 /**
+ * Maps the whole address space onto one IRam, whose size must be a power of two. The layout below is for CHIP-8,
+ * XO-CHIP has the same bottom 4 KB with program memory continuing up to 0xFFFF.
  * ┌─────────────────────────────┐ 0xFFF ← Last valid address
  * │         Program RAM         │
  * │        (ROM + data)         │
  * ├─────────────────────────────┤ 0x200 ← PC starts here
  * │            Free             │
+ * ├─────────────────────────────┤ 0x1A0
+ * │     Big font (SCHIP)        │
+ * ├─────────────────────────────┤ 0x100 ← Fx30 targets start here
+ * │            Free             │
  * ├─────────────────────────────┤ 0x0A0
  * │        Font sprites         │
  * ├─────────────────────────────┤ 0x050 ← Fx29 targets start here
@@ -14,20 +22,28 @@ package pantoja.chip8.memory;
  */
 public class Chip8Bus implements IBus {
     public static final int FONT_START = 0x50;
+    public static final int BIG_FONT_START = 0x100;
     public static final int PROGRAM_START = 0x200;
     public static final int RAM_END = 0xFFF;
 
     private final IRam ram;
+    // Any address with a bit outside the mask is out of range, negative ones included, at the cost of one AND
+    private final int outOfRange;
+    private volatile IBusWriteListener[] listeners = new IBusWriteListener[0];
 
 
     public Chip8Bus(IRam ram) {
+        if (Integer.bitCount(ram.size()) != 1) {
+            throw new IllegalArgumentException("RAM size must be a power of two: " + ram.size());
+        }
         this.ram = ram;
+        this.outOfRange = ~(ram.size() - 1);
     }
 
 
     @Override
     public int read8(int addr) {
-        if (addr < 0 || addr > RAM_END) {
+        if ((addr & outOfRange) != 0) {
             throw new IndexOutOfBoundsException("Bus denied access to address: 0x" + Integer.toHexString(addr));
         }
         return ram.get(addr);
@@ -36,16 +52,62 @@ public class Chip8Bus implements IBus {
 
     @Override
     public void write8(int addr, int value) {
-        if (addr < 0 || addr > RAM_END) {
+        if ((addr & outOfRange) != 0) {
             throw new IndexOutOfBoundsException("Bus denied access to Address 0x" + Integer.toHexString(addr));
         }
 
         ram.set(addr, value);
+        notifyWrite(addr, 1);
+    }
+
+
+    @Override
+    public void writeRange(int addr, int[] src, int srcOff, int len) {
+        if (len < 0) throw new IllegalArgumentException("len must be >= 0");
+        if (addr < 0 || addr + len > ram.size()) {
+            throw new IndexOutOfBoundsException("Bus denied access to Address 0x" + Integer.toHexString(addr));
+        }
+
+        for (int i = 0; i < len; i++) {
+            ram.set(addr + i, src[srcOff + i] & 0xFF);
+        }
+        notifyWrite(addr, len);
     }
 
 
     @Override
     public int addressSpaceSize() {
-        return RAM_END + 1;
+        return ram.size();
+    }
+
+
+    @Override
+    public byte[] directMemory() {
+        return ram.array();
+    }
+
+
+    @Override
+    public synchronized void addWriteListener(IBusWriteListener listener) {
+        IBusWriteListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+
+    @Override
+    public synchronized void removeWriteListener(IBusWriteListener listener) {
+        listeners = Arrays.stream(listeners)
+                .filter(l -> l != listener)
+                .toArray(IBusWriteListener[]::new);
+    }
+
+
+    // Listeners are swapped as a whole array, so the write path never takes a lock
+    private void notifyWrite(int addr, int len) {
+        IBusWriteListener[] current = listeners;
+        for (IBusWriteListener listener : current) {
+            listener.onWrite(addr, len);
+        }
     }
 }
@@ -5,14 +5,20 @@ import pantoja.chip8.util.Splash;
 import pantoja.chip8.util.Sprites;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
- * Memory map is handled by the bus, but memory is managed by Chip8Ram
+ * Memory map is handled by the bus, but memory is managed by Chip8Ram. XO-CHIP memory goes on to 0xFFFF.
  * ┌─────────────────────────────┐ 0xFFF ← Last valid address
  * │         Program RAM         │
  * │        (ROM + data)         │
  * ├─────────────────────────────┤ 0x200 ← PC starts here
  * │            Free             │
+ * ├─────────────────────────────┤ 0x1A0
+ * │     Big font (SCHIP)        │
+ * ├─────────────────────────────┤ 0x100 ← Fx30 targets start here
+ * │            Free             │
  * ├─────────────────────────────┤ 0x0A0
  * │        Font sprites         │
  * ├─────────────────────────────┤ 0x050 ← Fx29 targets start here
@@ -20,15 +26,29 @@ import java.io.IOException;
  * └─────────────────────────────┘ 0x000 ← First valid address
  */
 public class Chip8Ram implements IRam {
-    private byte[] ram;
+    // Allocated once, every reset clears and refills it in place
+    private final byte[] ram;
 
 
     public Chip8Ram() {
+        this(Chip8Bus.RAM_END + 1);
+    }
+
+
+    /**
+     * @param size Bytes of memory, a power of two so the bus can bounds check with a mask
+     */
+    public Chip8Ram(int size) {
+        if (size < Chip8Bus.PROGRAM_START || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("RAM size must be a power of two of at least 512 bytes: " + size);
+        }
+        ram = new byte[size];
         reset();
     }
 
 
     public Chip8Ram(String romPath) {
+        ram = new byte[Chip8Bus.RAM_END + 1];
         resetWithRom(romPath);
     }
 
@@ -47,21 +67,62 @@ public class Chip8Ram implements IRam {
 
     @Override
     public void reset() {
-        ram = new byte[Chip8Bus.RAM_END + 1];
-        System.arraycopy(Sprites.CHAR_SET, 0, ram, Chip8Bus.FONT_START, Sprites.CHAR_SET.length);
+        clearWithFont();
         System.arraycopy(Splash.rom, 0, ram, Chip8Bus.PROGRAM_START, Splash.rom.length);
     }
 
 
     @Override
     public void resetWithRom(String romPath) {
-        ram = new byte[Chip8Bus.RAM_END + 1];
-        System.arraycopy(Sprites.CHAR_SET, 0, ram, Chip8Bus.FONT_START, Sprites.CHAR_SET.length);
+        clearWithFont();
         try {
             FileIO.readIntoBuffer(romPath, ram, Chip8Bus.PROGRAM_START);
         } catch (IOException e) {
             System.out.println("Unable to load RAM: " + romPath);
+            // A read that failed part way may have left some of the ROM behind
+            Arrays.fill(ram, Chip8Bus.PROGRAM_START, ram.length, (byte) 0);
             System.arraycopy(Splash.rom, 0, ram, Chip8Bus.PROGRAM_START, Splash.rom.length);
         }
     }
+
+
+    @Override
+    public void resetWithImage(byte[] rom) {
+        if (rom.length > ram.length - Chip8Bus.PROGRAM_START) {
+            throw new IllegalArgumentException("ROM image too large: " + rom.length + " bytes");
+        }
+        clearWithFont();
+        System.arraycopy(rom, 0, ram, Chip8Bus.PROGRAM_START, rom.length);
+    }
+
+
+    @Override
+    public int size() {
+        return ram.length;
+    }
+
+
+    @Override
+    public void save(ByteBuffer out) {
+        out.put(ram);
+    }
+
+
+    @Override
+    public void restore(ByteBuffer in) {
+        in.get(ram);
+    }
+
+
+    @Override
+    public byte[] array() {
+        return ram;
+    }
+
+
+    private void clearWithFont() {
+        Arrays.fill(ram, (byte) 0);
+        System.arraycopy(Sprites.CHAR_SET, 0, ram, Chip8Bus.FONT_START, Sprites.CHAR_SET.length);
+        System.arraycopy(Sprites.BIG_CHAR_SET, 0, ram, Chip8Bus.BIG_FONT_START, Sprites.BIG_CHAR_SET.length);
+    }
 }
@@ -3,9 +3,9 @@ package pantoja.chip8.memory;
 import pantoja.chip8.instructions.Decoder;
 import pantoja.chip8.instructions.Instruction;
 import pantoja.chip8.instructions.InstructionDisassembler;
-import pantoja.chip8.ux.Sound;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class CpuState {
     public int pc;
@@ -13,40 +13,122 @@ public class CpuState {
     public int delayTimer;
     public int soundTimer;
     public boolean waitingForDisplay;
+    /**
+     * Fx0A found no key, the CPU executes nothing until the keypad has a release to report. PC still points at the
+     * Fx0A, so clearing this just polls again.
+     */
+    public boolean waitingForKey;
+    /**
+     * Set during a batch to make the decoder return before its budget is used up, whoever runs the batch clears it
+     */
+    public boolean endBatch;
+    // XO-CHIP audio, the 128 bit pattern loaded by F002 (first bit in the top of the high word) and the Fx3A pitch
+    public long audioPatternHigh;
+    public long audioPatternLow;
+    public int pitch;
+    public boolean patternLoaded;
+    /**
+     * Set whenever the pattern or pitch changed and the audio output hasn't been told yet
+     */
+    public boolean audioChanged;
+    // SUPER-CHIP, 00FF/00FE resolution, 00FD exit and the Fx75/Fx85 RPL user flags
+    public boolean hiRes;
+    /**
+     * 00FD ran, the CPU executes nothing more until the next reset. PC still points at the 00FD.
+     */
+    public boolean halted;
+    public final byte[] rplFlags = new byte[RPL_FLAGS];
+    /**
+     * XO-CHIP planes selected by Fn01 for drawing, clearing and scrolling, bit 0 for the first plane
+     */
+    public int planes;
     private final IBus bus;
     private final byte[] V;
     private final int[] stack;
-    private final Sound sound;
     private int sp;
 
     public static final int FONT_START = 0x50;
+    public static final int BIG_FONT_START = Chip8Bus.BIG_FONT_START;
+    public static final int RPL_FLAGS = 16;
     private static final int PROGRAM_START = 0x200;
     private static final int STACK_SIZE = 16;
     private static final int NUM_OF_REGISTERS = 16;
 
+    /**
+     * Size of the block written by save
+     */
+    public static final int SNAPSHOT_BYTES = 2 + 2 + 1 + 1 + 1 + 1 + NUM_OF_REGISTERS + STACK_SIZE * 2 + 8 + 8 + 1 + 1
+            + 1 + 1 + RPL_FLAGS + 1;
 
-    public CpuState(Sound sound, boolean loadSplash, IBus bus) {
-        this.sound = sound;
+    /**
+     * Pitch register value that plays the audio pattern at 4000 bits per second
+     */
+    public static final int DEFAULT_PITCH = 64;
+
+    /**
+     * Size of the array filled by captureRegisters
+     */
+    public static final int REGISTER_STATE_INTS = 5 + NUM_OF_REGISTERS + STACK_SIZE;
+
+
+    public CpuState(IBus bus) {
         this.bus = bus;
-        pc = PROGRAM_START;
         V = new byte[NUM_OF_REGISTERS];
         stack = new int[STACK_SIZE];
+        reset();
+    }
+
+
+    /**
+     * Back to the power on state, in place
+     */
+    public void reset() {
+        pc = PROGRAM_START;
+        I = 0;
+        Arrays.fill(V, (byte) 0);
+        Arrays.fill(stack, 0);
         sp = 0;
         delayTimer = 0;
         soundTimer = 0;
         waitingForDisplay = false;
+        waitingForKey = false;
+        endBatch = false;
+        audioPatternHigh = 0;
+        audioPatternLow = 0;
+        pitch = DEFAULT_PITCH;
+        patternLoaded = false;
+        audioChanged = true;
+        hiRes = false;
+        halted = false;
+        Arrays.fill(rplFlags, (byte) 0);
+        planes = 1;
     }
 
 
-    public CpuState(String romPath, Sound sound, IBus bus) throws IOException {
-        this(sound, false, bus);
+    /**
+     * The bus this CPU fetches from
+     */
+    public IBus bus() {
+        return bus;
     }
 
 
     public void updateTimers() {
         if (delayTimer > 0) delayTimer--;
         if (soundTimer > 0) soundTimer--;
-        sound.running = (soundTimer > 0);
+    }
+
+
+    public boolean isSoundOn() {
+        return soundTimer > 0;
+    }
+
+
+    /**
+     * The V registers themselves, for compiled blocks that read and write them without a call per access
+     */
+    public byte[] registers() {
+        return V;
     }
 
 
@@ -95,6 +177,103 @@ public class CpuState {
     }
 
 
+    /**
+     * Copies PC, I, timers, stack pointer, registers and stack into an int array, for cheap comparisons
+     */
+    public void captureRegisters(int[] into) {
+        into[0] = pc;
+        into[1] = I;
+        into[2] = delayTimer;
+        into[3] = soundTimer;
+        into[4] = sp;
+        for (int r = 0; r < NUM_OF_REGISTERS; r++) {
+            into[5 + r] = V[r];
+        }
+        System.arraycopy(stack, 0, into, 5 + NUM_OF_REGISTERS, STACK_SIZE);
+    }
+
+
+    /**
+     * true if the registers are exactly what captureRegisters stored
+     */
+    public boolean registersEqual(int[] captured) {
+        if (captured[0] != pc || captured[1] != I || captured[2] != delayTimer || captured[3] != soundTimer
+                || captured[4] != sp) {
+            return false;
+        }
+        for (int r = 0; r < NUM_OF_REGISTERS; r++) {
+            if (captured[5 + r] != V[r]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < STACK_SIZE; i++) {
+            if (captured[5 + NUM_OF_REGISTERS + i] != stack[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Writes PC, I, timers, stack pointer, registers, stack, the XO-CHIP audio pattern and pitch, the SUPER-CHIP
+     * resolution, halt and RPL flags and the XO-CHIP plane selection, in that order
+     */
+    public void save(ByteBuffer out) {
+        out.putShort((short) pc);
+        out.putShort((short) I);
+        out.put((byte) delayTimer);
+        out.put((byte) soundTimer);
+        out.put((byte) (waitingForDisplay ? 1 : 0));
+        out.put((byte) sp);
+        out.put(V);
+        for (int addr : stack) {
+            out.putShort((short) addr);
+        }
+        out.putLong(audioPatternHigh);
+        out.putLong(audioPatternLow);
+        out.put((byte) pitch);
+        out.put((byte) (patternLoaded ? 1 : 0));
+        out.put((byte) (hiRes ? 1 : 0));
+        out.put((byte) (halted ? 1 : 0));
+        out.put(rplFlags);
+        out.put((byte) planes);
+    }
+
+
+    /**
+     * Reads back a block written by save
+     */
+    public void restore(ByteBuffer in) {
+        pc = in.getShort() & 0xFFFF;
+        I = in.getShort() & 0xFFFF;
+        delayTimer = in.get() & 0xFF;
+        soundTimer = in.get() & 0xFF;
+        waitingForDisplay = in.get() != 0;
+        // Not saved, a restored CPU sitting on Fx0A polls once and parks again
+        waitingForKey = false;
+        endBatch = false;
+        int restoredSp = in.get() & 0xFF;
+        if (restoredSp > STACK_SIZE) {
+            throw new IllegalArgumentException("Invalid stack pointer in snapshot: " + restoredSp);
+        }
+        sp = restoredSp;
+        in.get(V);
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = in.getShort() & 0xFFFF;
+        }
+        audioPatternHigh = in.getLong();
+        audioPatternLow = in.getLong();
+        pitch = in.get() & 0xFF;
+        patternLoaded = in.get() != 0;
+        audioChanged = true;
+        hiRes = in.get() != 0;
+        halted = in.get() != 0;
+        in.get(rplFlags);
+        planes = in.get() & 0x3;
+    }
+
+
     public String currentState() {
         StringBuilder sb = new StringBuilder();
 
@@ -0,0 +1,328 @@
+package pantoja.chip8.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Display memory of one or more bit planes, written by the CPU and read by whatever presents the frame. CHIP-8 has
+ * a single plane, XO-CHIP two, and a pixel's colour is its bit from each plane.
+ * <p>
+ * Pixels are bit packed, one long per 64 columns of a row with the leftmost pixel in the most significant bit,
+ * so a 64x32 screen is 32 longs and a 128x64 screen is two longs per row. Planes follow each other in the same
+ * array. A sprite row is drawn with a shift, an AND for collision and an XOR, instead of a branch per pixel.
+ * Scrolling moves whole rows with arraycopy and shifts each row as a multi word integer, never touching single
+ * pixels.
+ */
+public class FrameBuffer {
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private final boolean wrap;
+    private final int planes;
+    private final int planeWords;
+    // Valid columns in the last word of each row, only differs from -1 when the width isn't a multiple of 64
+    private final long lastWordMask;
+    private final long[] rows;
+    // Bumped on every change so presenters can tell whether there is anything new to show
+    private int version;
+
+
+    /**
+     * @param wrap   When true sprites crossing an edge wrap around to the other side, otherwise they are clipped
+     * @param planes Number of bit planes, 1 or 2
+     */
+    public FrameBuffer(int width, int height, boolean wrap, int planes) {
+        if (planes < 1 || planes > 2) {
+            throw new IllegalArgumentException("Frame buffer must have 1 or 2 planes: " + planes);
+        }
+        this.width = width;
+        this.height = height;
+        this.wrap = wrap;
+        this.planes = planes;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.lastWordMask = ((width & 63) == 0) ? -1L : -1L << (64 - (width & 63));
+        this.planeWords = wordsPerRow * height;
+        this.rows = new long[planeWords * planes];
+    }
+
+
+    public FrameBuffer(int width, int height, boolean wrap) {
+        this(width, height, wrap, 1);
+    }
+
+
+    public FrameBuffer(int width, int height) {
+        this(width, height, false);
+    }
+
+
+    public int width() {
+        return width;
+    }
+
+
+    public int height() {
+        return height;
+    }
+
+
+    public boolean wraps() {
+        return wrap;
+    }
+
+
+    public int wordsPerRow() {
+        return wordsPerRow;
+    }
+
+
+    public int planes() {
+        return planes;
+    }
+
+
+    /**
+     * The packed pixels, plane after plane and row after row, wordsPerRow longs per row
+     */
+    public long[] words() {
+        return rows;
+    }
+
+
+    /**
+     * A counter that changes whenever the pixels do, only meaningful compared with an earlier value
+     */
+    public int version() {
+        return version;
+    }
+
+
+    public boolean isSet(int x, int y) {
+        long word = rows[y * wordsPerRow + (x >>> 6)];
+        return (word & (Long.MIN_VALUE >>> (x & 63))) != 0;
+    }
+
+
+    /**
+     * Colour index of a pixel, bit n is the pixel on plane n
+     */
+    public int colorAt(int x, int y) {
+        int i = y * wordsPerRow + (x >>> 6);
+        int shift = 63 - (x & 63);
+        int color = 0;
+        for (int p = 0; p < planes; p++) {
+            color |= (int) ((rows[p * planeWords + i] >>> shift) & 1) << p;
+        }
+        return color;
+    }
+
+
+    public boolean drawSprite(int x, int y, int[] sprite) {
+        return drawSprite(x, y, sprite, sprite.length);
+    }
+
+
+    /**
+     * XORs an 8 pixel wide sprite onto the display. x and y must already be on screen.
+     *
+     * @param sprite One byte per row, most significant bit on the left
+     * @param len    Number of rows in the sprite
+     * @return true if any pixel was erased
+     */
+    public boolean drawSprite(int x, int y, int[] sprite, int len) {
+        return drawSprite(x, y, sprite, len, 8);
+    }
+
+
+    public boolean drawSprite(int x, int y, int[] sprite, int len, int spriteWidth) {
+        return drawSprite(x, y, sprite, len, spriteWidth, 0);
+    }
+
+
+    /**
+     * XORs a sprite of up to 32 pixels per row onto one plane of the display. x and y must already be on screen.
+     *
+     * @param sprite      One int per row, the low spriteWidth bits are the pixels with the leftmost one highest
+     * @param spriteWidth Pixels per row, 1 to 32
+     * @return true if any pixel was erased
+     */
+    public boolean drawSprite(int x, int y, int[] sprite, int len, int spriteWidth, int plane) {
+        boolean erased = false;
+        int planeBase = plane * planeWords;
+        long rowMask = -1L >>> (64 - spriteWidth);
+
+        for (int r = 0; r < len; r++) {
+            int py = y + r;
+            if (py >= height) {
+                if (!wrap) break;
+                py %= height;
+            }
+
+            long aligned = (sprite[r] & rowMask) << (64 - spriteWidth);
+            int base = planeBase + py * wordsPerRow;
+            erased |= xorRow(base, x, aligned, spriteWidth);
+
+            // The columns past the right edge come back in at column 0
+            int overflow = x + spriteWidth - width;
+            if (wrap && overflow > 0) {
+                erased |= xorRow(base, 0, aligned << (spriteWidth - overflow), overflow);
+            }
+        }
+
+        return erased;
+    }
+
+
+    public void clear() {
+        Arrays.fill(rows, 0L);
+        version++;
+    }
+
+
+    /**
+     * Clears the planes whose bits are set in planeMask, bit 0 for the first plane
+     */
+    public void clear(int planeMask) {
+        for (int p = 0; p < planes; p++) {
+            if ((planeMask & (1 << p)) != 0) {
+                Arrays.fill(rows, p * planeWords, (p + 1) * planeWords, 0L);
+            }
+        }
+        version++;
+    }
+
+
+    /**
+     * Moves the picture on the planes in planeMask down n rows, blank rows come in at the top
+     */
+    public void scrollDown(int n, int planeMask) {
+        int shift = Math.min(n, height) * wordsPerRow;
+        for (int p = 0; p < planes; p++) {
+            if ((planeMask & (1 << p)) != 0) {
+                int start = p * planeWords;
+                System.arraycopy(rows, start, rows, start + shift, planeWords - shift);
+                Arrays.fill(rows, start, start + shift, 0L);
+            }
+        }
+        version++;
+    }
+
+
+    /**
+     * Moves the picture on the planes in planeMask up n rows, blank rows come in at the bottom
+     */
+    public void scrollUp(int n, int planeMask) {
+        int shift = Math.min(n, height) * wordsPerRow;
+        for (int p = 0; p < planes; p++) {
+            if ((planeMask & (1 << p)) != 0) {
+                int start = p * planeWords;
+                System.arraycopy(rows, start + shift, rows, start, planeWords - shift);
+                Arrays.fill(rows, start + planeWords - shift, start + planeWords, 0L);
+            }
+        }
+        version++;
+    }
+
+
+    /**
+     * Moves the picture on the planes in planeMask right n columns, 0 to 63, blank columns come in on the left
+     */
+    public void scrollRight(int n, int planeMask) {
+        if (n == 0) {
+            return;
+        }
+        int last = wordsPerRow - 1;
+        for (int p = 0; p < planes; p++) {
+            if ((planeMask & (1 << p)) == 0) {
+                continue;
+            }
+            for (int base = p * planeWords; base < (p + 1) * planeWords; base += wordsPerRow) {
+                for (int w = last; w > 0; w--) {
+                    rows[base + w] = (rows[base + w] >>> n) | (rows[base + w - 1] << (64 - n));
+                }
+                rows[base] >>>= n;
+                rows[base + last] &= lastWordMask;
+            }
+        }
+        version++;
+    }
+
+
+    /**
+     * Moves the picture on the planes in planeMask left n columns, 0 to 63, blank columns come in on the right
+     */
+    public void scrollLeft(int n, int planeMask) {
+        if (n == 0) {
+            return;
+        }
+        int last = wordsPerRow - 1;
+        for (int p = 0; p < planes; p++) {
+            if ((planeMask & (1 << p)) == 0) {
+                continue;
+            }
+            for (int base = p * planeWords; base < (p + 1) * planeWords; base += wordsPerRow) {
+                for (int w = 0; w < last; w++) {
+                    rows[base + w] = (rows[base + w] << n) | (rows[base + w + 1] >>> (64 - n));
+                }
+                // Columns past the edge are always clear, so shifting them in keeps them clear
+                rows[base + last] <<= n;
+            }
+        }
+        version++;
+    }
+
+
+    /**
+     * Size of the block written by save
+     */
+    public int snapshotBytes() {
+        return rows.length * Long.BYTES;
+    }
+
+
+    // A putLong loop rather than asLongBuffer, which would allocate a view on every call
+    public void save(ByteBuffer out) {
+        for (long row : rows) {
+            out.putLong(row);
+        }
+    }
+
+
+    public void restore(ByteBuffer in) {
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = in.getLong();
+        }
+        version++;
+    }
+
+
+    // XORs the top spriteWidth bits of aligned at column x of the row starting at base, clipping at the right edge
+    private boolean xorRow(int base, int x, long aligned, int spriteWidth) {
+        int word = x >>> 6;
+        int shift = x & 63;
+
+        long first = aligned >>> shift;
+        long erased = xorWord(base, word, first);
+
+        // A sprite straddling a word boundary spills into the next word of the same row
+        if (shift > 64 - spriteWidth && word + 1 < wordsPerRow) {
+            erased |= xorWord(base, word + 1, aligned << (64 - shift));
+        }
+        return erased != 0;
+    }
+
+
+    private long xorWord(int base, int word, long bits) {
+        if (word == wordsPerRow - 1) {
+            bits &= lastWordMask;
+        }
+        if (bits == 0) {
+            return 0;
+        }
+        int i = base + word;
+        version++;
+        long collision = rows[i] & bits;
+        rows[i] ^= bits;
+        return collision;
+    }
+}
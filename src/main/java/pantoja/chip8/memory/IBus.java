@@ -6,7 +6,8 @@ package pantoja.chip8.memory;
  * reads/writes (instruction fetch, sprites, stack storage if memory-mapped later, etc.).
  * <p>
  * Admittedly, this isn't a very useful abstraction for CHIP-8, but I'm attempting to
- * build a more reusable emulator architecture, and it may prove useful for xo-chip
+ * build a more reusable emulator architecture, and it pays off for xo-chip, whose 64 KB
+ * address space is just a bigger RAM behind the same bus
  */
 public interface IBus {
 
@@ -45,4 +46,19 @@ public interface IBus {
     }
 
     int addressSpaceSize();
+
+
+    /**
+     * The whole address space as one byte array for compiled code to read directly, or null when memory isn't laid
+     * out that way. Indexes past the end fail like out of range bus reads do, with an IndexOutOfBoundsException.
+     */
+    default byte[] directMemory() {
+        return null;
+    }
+
+
+    void addWriteListener(IBusWriteListener listener);
+
+
+    void removeWriteListener(IBusWriteListener listener);
 }
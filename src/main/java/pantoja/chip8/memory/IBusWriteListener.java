@@ -0,0 +1,15 @@
+package pantoja.chip8.memory;
+
+/**
+ * Notified after the CPU writes through the bus, used to keep anything derived from memory (decoded
+ * instructions for example) in sync with self-modifying programs
+ */
+@FunctionalInterface
+public interface IBusWriteListener {
+
+    /**
+     * @param addr First address written
+     * @param len  Number of consecutive bytes written
+     */
+    void onWrite(int addr, int len);
+}
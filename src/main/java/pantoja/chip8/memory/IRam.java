@@ -1,5 +1,7 @@
 package pantoja.chip8.memory;
 
+import java.nio.ByteBuffer;
+
 public interface IRam {
     int get(int addr);
 
@@ -8,4 +10,30 @@ public interface IRam {
     void reset();
 
     void resetWithRom(String romPath);
+
+    /**
+     * Resets with a ROM image already in memory, the image is copied so one can be shared by many machines
+     */
+    void resetWithImage(byte[] rom);
+
+    int size();
+
+    /**
+     * Bulk copies all of memory into the buffer, for snapshots
+     */
+    void save(ByteBuffer out);
+
+    /**
+     * Bulk copies size() bytes from the buffer back into memory
+     */
+    void restore(ByteBuffer in);
+
+
+    /**
+     * The backing array when memory is one plain byte array, null otherwise. Only for reads, writes have to go through
+     * the bus so its listeners hear about them.
+     */
+    default byte[] array() {
+        return null;
+    }
 }
@@ -1,6 +1,5 @@
 package pantoja.chip8.util;
 
-import java.awt.Color;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -22,15 +21,93 @@ public final class Config {
         public final long cpuPeriodNs;
         public final long timerPeriodNs;
 
+        /**
+         * When true the CPU wakes once per timer tick and runs a batch of frameBatchSize instructions,
+         * otherwise every instruction is scheduled individually at cpuPeriodNs
+         */
+        public final boolean frameBatched;
+        public final int instructionsPerFrame;
+        public final int frameBatchSize;
+
+        /**
+         * Number of executed instructions kept for debugging, 0 disables the trace
+         */
+        public final int traceCapacity;
+
+        /**
+         * Reuse decoded instructions per address instead of decoding every fetch
+         */
+        public final boolean decoderCache;
+
+        /**
+         * Compile hot basic blocks to JVM bytecode, only used in frame batched mode
+         */
+        public final boolean blockCompiler;
+
+        /**
+         * Fast forward through loops that only poll timers or keys until the end of the frame, frame batched mode only
+         */
+        public final boolean skipIdleLoops;
+
+        /**
+         * Quirk, sprites crossing the screen edge wrap around instead of being clipped
+         */
+        public final boolean wrapSprites;
+
+        /**
+         * CHIP-8 variant to emulate
+         */
+        public final Profile profile;
+
+        /**
+         * Quirks.* bits, starts out as the profile's defaults
+         */
+        public final int quirks;
+
+        /**
+         * Memory for rewind history in KB, 0 turns rewinding off
+         */
+        public final int rewindBufferKb;
+
+        /**
+         * Seed for the CXNN random sequence, 0 picks a new seed every time a ROM is loaded
+         */
+        public final long randomSeed;
+
         public final int soundFreq;
         public final int soundAmplitude;
 
+        /**
+         * Beep with a square wave instead of a triangle
+         */
+        public final boolean squareWave;
+
+        /**
+         * Audio line buffer in milliseconds, smaller is lower latency but underruns sooner when the host is busy
+         */
+        public final int audioBufferMs;
+
+        /**
+         * Display size for CHIP-8, profiles with a high resolution mode always use Profile.HIRES_WIDTH x HIRES_HEIGHT
+         */
         public final int width;
         public final int height;
         public final int scale;
 
-        public final Color background;
-        public final Color foreground;
+        /**
+         * Size of the frame buffer the machine actually draws on
+         */
+        public final int displayWidth;
+        public final int displayHeight;
+
+        // Colors are packed 0xRRGGBB so the core never loads AWT
+        public final int background;
+        public final int foreground;
+        /**
+         * XO-CHIP colors for pixels set only on the second plane, and on both planes
+         */
+        public final int plane2Color;
+        public final int blendColor;
 
 
         private Configuration(Builder b) {
@@ -42,15 +119,37 @@ public final class Config {
             this.timerPeriodNs = 1_000_000_000L / this.timerHz;
             this.cpuPeriodNs = 1_000_000_000L / this.cpuHz;
 
+            // 0 derives the batch size from the cpu and timer rates
+            this.frameBatched = b.frameBatched;
+            this.instructionsPerFrame = requireInRange(b.instructionsPerFrame, 0, 100_000, "instructionsPerFrame");
+            this.frameBatchSize = (instructionsPerFrame > 0)
+                    ? instructionsPerFrame
+                    : Math.max(1, this.cpuHz / this.timerHz);
+            this.traceCapacity = requireInRange(b.traceCapacity, 0, 1 << 20, "traceCapacity");
+            this.decoderCache = b.decoderCache;
+            this.blockCompiler = b.blockCompiler;
+            this.skipIdleLoops = b.skipIdleLoops;
+            this.wrapSprites = b.wrapSprites;
+            this.profile = Objects.requireNonNull(b.profile, "profile");
+            this.quirks = requireInRange(b.quirks, 0, Quirks.ALL, "quirks");
+            this.rewindBufferKb = requireInRange(b.rewindBufferKb, 0, 1 << 20, "rewindBufferKb");
+            this.randomSeed = b.randomSeed;
+
             this.soundFreq = requirePositive(b.soundFreq, "soundFreq");
             this.soundAmplitude = requireInRange(b.soundAmplitude, 0, 127, "soundAmplitude");
+            this.squareWave = b.squareWave;
+            this.audioBufferMs = requireInRange(b.audioBufferMs, 5, 1000, "audioBufferMs");
 
             this.width = requirePositive(b.width, "width");
             this.height = requirePositive(b.height, "height");
             this.scale = requirePositive(b.scale, "scale");
+            this.displayWidth = profile.superChip ? Profile.HIRES_WIDTH : width;
+            this.displayHeight = profile.superChip ? Profile.HIRES_HEIGHT : height;
 
-            this.background = Objects.requireNonNull(b.background, "background");
-            this.foreground = Objects.requireNonNull(b.foreground, "foreground");
+            this.background = b.background & 0xFFFFFF;
+            this.foreground = b.foreground & 0xFFFFFF;
+            this.plane2Color = b.plane2Color & 0xFFFFFF;
+            this.blendColor = b.blendColor & 0xFFFFFF;
         }
 
 
@@ -71,15 +170,31 @@ public final class Config {
             private int timerHz;
             private int cpuHz;
 
+            private boolean frameBatched;
+            private int instructionsPerFrame;
+            private int traceCapacity;
+            private boolean decoderCache;
+            private boolean blockCompiler;
+            private boolean skipIdleLoops;
+            private boolean wrapSprites;
+            private Profile profile;
+            private int quirks;
+            private int rewindBufferKb;
+            private long randomSeed;
+
             private int soundFreq;
             private int soundAmplitude;
+            private boolean squareWave;
+            private int audioBufferMs;
 
             private int width;
             private int height;
             private int scale;
 
-            private Color background;
-            private Color foreground;
+            private int background;
+            private int foreground;
+            private int plane2Color;
+            private int blendColor;
 
 
             public Builder() {
@@ -90,13 +205,28 @@ public final class Config {
                 this.romPath = c.romPath;
                 this.timerHz = c.timerHz;
                 this.cpuHz = c.cpuHz;
+                this.frameBatched = c.frameBatched;
+                this.instructionsPerFrame = c.instructionsPerFrame;
+                this.traceCapacity = c.traceCapacity;
+                this.decoderCache = c.decoderCache;
+                this.blockCompiler = c.blockCompiler;
+                this.skipIdleLoops = c.skipIdleLoops;
+                this.wrapSprites = c.wrapSprites;
+                this.profile = c.profile;
+                this.quirks = c.quirks;
+                this.rewindBufferKb = c.rewindBufferKb;
+                this.randomSeed = c.randomSeed;
                 this.soundFreq = c.soundFreq;
                 this.soundAmplitude = c.soundAmplitude;
+                this.squareWave = c.squareWave;
+                this.audioBufferMs = c.audioBufferMs;
                 this.width = c.width;
                 this.height = c.height;
                 this.scale = c.scale;
                 this.background = c.background;
                 this.foreground = c.foreground;
+                this.plane2Color = c.plane2Color;
+                this.blendColor = c.blendColor;
             }
 
 
@@ -118,6 +248,82 @@ public final class Config {
             }
 
 
+            public Builder frameBatched(boolean v) {
+                this.frameBatched = v;
+                return this;
+            }
+
+
+            /**
+             * Instructions executed per timer tick in frame batched mode, 0 derives it from cpuHz / timerHz
+             */
+            public Builder instructionsPerFrame(int v) {
+                this.instructionsPerFrame = v;
+                return this;
+            }
+
+
+            public Builder traceCapacity(int v) {
+                this.traceCapacity = v;
+                return this;
+            }
+
+
+            public Builder decoderCache(boolean v) {
+                this.decoderCache = v;
+                return this;
+            }
+
+
+            public Builder blockCompiler(boolean v) {
+                this.blockCompiler = v;
+                return this;
+            }
+
+
+            public Builder skipIdleLoops(boolean v) {
+                this.skipIdleLoops = v;
+                return this;
+            }
+
+
+            public Builder wrapSprites(boolean v) {
+                this.wrapSprites = v;
+                return this;
+            }
+
+
+            /**
+             * Also resets the quirks and sprite wrapping to the profile's defaults, set them afterwards to override
+             */
+            public Builder profile(Profile v) {
+                this.profile = v;
+                if (v != null) {
+                    this.quirks = v.defaultQuirks;
+                    this.wrapSprites = v.defaultWrapSprites;
+                }
+                return this;
+            }
+
+
+            public Builder quirks(int v) {
+                this.quirks = v;
+                return this;
+            }
+
+
+            public Builder rewindBufferKb(int v) {
+                this.rewindBufferKb = v;
+                return this;
+            }
+
+
+            public Builder randomSeed(long v) {
+                this.randomSeed = v;
+                return this;
+            }
+
+
             public Builder soundFreq(int v) {
                 this.soundFreq = v;
                 return this;
@@ -130,6 +336,18 @@ public final class Config {
             }
 
 
+            public Builder squareWave(boolean v) {
+                this.squareWave = v;
+                return this;
+            }
+
+
+            public Builder audioBufferMs(int v) {
+                this.audioBufferMs = v;
+                return this;
+            }
+
+
             public Builder width(int v) {
                 this.width = v;
                 return this;
@@ -148,13 +366,23 @@ public final class Config {
             }
 
 
-            public Builder palette(Color bg, Color fg) {
+            public Builder palette(int bg, int fg) {
                 this.background = bg;
                 this.foreground = fg;
                 return this;
             }
 
 
+            /**
+             * The two extra XO-CHIP colors, for the second plane alone and for both planes
+             */
+            public Builder planeColors(int plane2, int blend) {
+                this.plane2Color = plane2;
+                this.blendColor = blend;
+                return this;
+            }
+
+
             public Configuration build() {
                 return new Configuration(this);
             }
@@ -162,8 +390,10 @@ public final class Config {
     }
 
     // ----- Defaults  -----
-    public static final Color FOREGROUND_COLOR = new Color(0xA6, 0xA1, 0xFF);
-    public static final Color BACKGROUND_COLOR = new Color(0x35, 0x28, 0x79);
+    public static final int FOREGROUND_COLOR = 0xA6A1FF;
+    public static final int BACKGROUND_COLOR = 0x352879;
+    public static final int PLANE2_COLOR = 0xFF6600;
+    public static final int BLEND_COLOR = 0x662200;
 
 
     public static Configuration defaults() {
@@ -171,12 +401,25 @@ public final class Config {
                 .romPath("data/roms/splash.ch8")
                 .timerHz(60)
                 .cpuHz(1000)
+                .frameBatched(true)
+                .instructionsPerFrame(0)
+                .traceCapacity(0)
+                .decoderCache(true)
+                .blockCompiler(false)
+                .skipIdleLoops(true)
+                .profile(Profile.CHIP8)
+                .wrapSprites(false)
+                .rewindBufferKb(4096)
+                .randomSeed(0)
                 .soundFreq(329)
                 .soundAmplitude(40)
+                .squareWave(false)
+                .audioBufferMs(40)
                 .width(64)
                 .height(32)
                 .scale(15)
                 .palette(BACKGROUND_COLOR, FOREGROUND_COLOR)
+                .planeColors(PLANE2_COLOR, BLEND_COLOR)
                 .build();
     }
 
@@ -0,0 +1,31 @@
+package pantoja.chip8.util;
+
+/**
+ * Random source for the CXNN instruction. Each machine owns one, so machines never share a sequence and a run can be
+ * repeated from its seed.
+ */
+public interface IRandom {
+
+    /**
+     * @return A uniformly distributed value in 0..255
+     */
+    int nextByte();
+
+
+    /**
+     * Restarts the sequence, the same seed always gives the same sequence
+     */
+    void seed(long seed);
+
+
+    /**
+     * The complete generator state, for snapshots
+     */
+    long state();
+
+
+    /**
+     * Puts back a state returned by state()
+     */
+    void restoreState(long state);
+}
@@ -0,0 +1,40 @@
+package pantoja.chip8.util;
+
+/**
+ * The CHIP-8 variant being emulated, which decides the display, the memory size, the opcodes on top of CHIP-8 and
+ * the quirks a configuration starts out with
+ */
+public enum Profile {
+    CHIP8(Quirks.CHIP8, false, false, false),
+    SCHIP(Quirks.SCHIP, false, true, false),
+    XOCHIP(Quirks.XOCHIP, true, true, true);
+
+    /**
+     * Size of the display in high resolution mode, low resolution pixels are drawn as 2x2 blocks of it
+     */
+    public static final int HIRES_WIDTH = 128;
+    public static final int HIRES_HEIGHT = 64;
+
+    public final int defaultQuirks;
+    public final boolean defaultWrapSprites;
+    /**
+     * Has the SUPER-CHIP opcodes and the 128x64 display
+     */
+    public final boolean superChip;
+    /**
+     * Has the XO-CHIP opcodes, 64 KB of memory and two bit planes
+     */
+    public final boolean xoChip;
+    public final int memorySize;
+    public final int planes;
+
+
+    Profile(int defaultQuirks, boolean defaultWrapSprites, boolean superChip, boolean xoChip) {
+        this.defaultQuirks = defaultQuirks;
+        this.defaultWrapSprites = defaultWrapSprites;
+        this.superChip = superChip;
+        this.xoChip = xoChip;
+        this.memorySize = xoChip ? 0x10000 : 0x1000;
+        this.planes = xoChip ? 2 : 1;
+    }
+}
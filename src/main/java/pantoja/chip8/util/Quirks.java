@@ -0,0 +1,44 @@
+package pantoja.chip8.util;
+
+/**
+ * Behaviours that differ between CHIP-8 interpreters, packed as bits into Config.quirks. Every profile has a
+ * default set, see
+ * <a href="https://github.com/Timendus/chip8-test-suite#quirks-test">the quirks test</a> for what each one changes.
+ */
+public final class Quirks {
+
+    private Quirks() {
+    }
+
+
+    /**
+     * 8xy1, 8xy2 and 8xy3 clear VF
+     */
+    public static final int VF_RESET = 1;
+
+    /**
+     * 8xy6 and 8xyE shift Vy into Vx, otherwise Vx is shifted in place
+     */
+    public static final int SHIFT_USES_VY = 1 << 1;
+
+    /**
+     * Fx55 and Fx65 leave I pointing past the last register they copied
+     */
+    public static final int MEMORY_INCREMENTS_I = 1 << 2;
+
+    /**
+     * Bxnn jumps to xnn + Vx instead of Bnnn jumping to nnn + V0
+     */
+    public static final int JUMP_USES_VX = 1 << 3;
+
+    /**
+     * Dxyn stalls the CPU until the next timer tick
+     */
+    public static final int DISPLAY_WAIT = 1 << 4;
+
+    public static final int ALL = VF_RESET | SHIFT_USES_VY | MEMORY_INCREMENTS_I | JUMP_USES_VX | DISPLAY_WAIT;
+
+    public static final int CHIP8 = VF_RESET | SHIFT_USES_VY | MEMORY_INCREMENTS_I | DISPLAY_WAIT;
+    public static final int SCHIP = JUMP_USES_VX;
+    public static final int XOCHIP = SHIFT_USES_VY | MEMORY_INCREMENTS_I;
+}
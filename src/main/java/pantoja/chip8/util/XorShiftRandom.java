@@ -0,0 +1,53 @@
+package pantoja.chip8.util;
+
+/**
+ * xorshift64* generator: one long of state, three shifts and a multiply per value, no synchronization.
+ * <p>
+ * Seeds are scrambled with the SplitMix64 finalizer first, so seeds that differ by one (one per machine in a fleet)
+ * still start far apart in the sequence, and the all zero state the generator can't leave is never reached.
+ */
+public final class XorShiftRandom implements IRandom {
+    private long state;
+
+
+    public XorShiftRandom(long seed) {
+        seed(seed);
+    }
+
+
+    @Override
+    public int nextByte() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        // The high bits of the product are the best mixed
+        return (int) ((x * 0x2545F4914F6CDD1DL) >>> 56);
+    }
+
+
+    @Override
+    public void seed(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        state = (z != 0) ? z : 0x9E3779B97F4A7C15L;
+    }
+
+
+    @Override
+    public long state() {
+        return state;
+    }
+
+
+    @Override
+    public void restoreState(long state) {
+        if (state == 0) {
+            throw new IllegalArgumentException("Invalid random state in snapshot: 0");
+        }
+        this.state = state;
+    }
+}
@@ -1,78 +1,134 @@
 package pantoja.chip8.ux;
 
+import pantoja.chip8.memory.FrameBuffer;
 import pantoja.chip8.util.Config;
 
 import javax.swing.JPanel;
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.util.Arrays;
-
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+
+/**
+ * Shows the frame buffer at its native resolution in an indexed image, scaled up with a single drawImage. A single
+ * plane buffer uses two colours, an XO-CHIP one four, one per combination of plane bits.
+ * Frames arrive through a FrameHandoff, so painting never reads pixels the emulation thread is still drawing, and
+ * the image is only refilled when a newer frame than the last painted one has been published.
+ * <p>
+ * The image uses a byte per pixel rather than TYPE_BYTE_BINARY, Java2D has no fast loop for scaling packed 1 bit
+ * images and falls back to a generic one that is several times slower.
+ */
 public class DisplayPanel extends JPanel {
 
     private final int width;
     private final int height;
     private final int scale;
-    private final Color foreground;
-    private final boolean[][] display;
+    private final int background;
+    private final int foreground;
+    private final int plane2Color;
+    private final int blendColor;
+    private final int wordsPerRow;
+    private final int planes;
+    private final int planeWords;
+    private final FrameHandoff handoff;
+    private final BufferedImage image;
+    private final byte[] pixels;
+    private int paintedVersion = -1;
+
+
+    public DisplayPanel(FrameBuffer frameBuffer, FrameHandoff handoff) {
+        this.handoff = handoff;
+        height = frameBuffer.height();
+        width = frameBuffer.width();
+        wordsPerRow = frameBuffer.wordsPerRow();
+        planes = frameBuffer.planes();
+        planeWords = wordsPerRow * height;
+        scale = scaleFor(Config.get(), width);
+        background = Config.get().background;
+        foreground = Config.get().foreground;
+        plane2Color = Config.get().plane2Color;
+        blendColor = Config.get().blendColor;
 
+        image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, palette());
+        pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
 
-    public DisplayPanel() {
-        height = Config.get().height;
-        width = Config.get().width;
-        scale = Config.get().scale;
-        foreground = Config.get().foreground;
         setPreferredSize(new Dimension(width * scale, height * scale));
-        setBackground(Config.get().background);
+        setOpaque(true);
+    }
 
-        display = new boolean[width][height];
+
+    /**
+     * Whether the scale and colours this panel was built with are still the configured ones
+     */
+    public boolean matchesConfig() {
+        Config.Configuration cfg = Config.get();
+        return scaleFor(cfg, width) == scale && cfg.background == background && cfg.foreground == foreground
+                && (planes == 1 || cfg.plane2Color == plane2Color && cfg.blendColor == blendColor);
+    }
+
+
+    // The configured scale is per CHIP-8 pixel, a 128x64 SUPER-CHIP buffer keeps the window about the same size
+    private static int scaleFor(Config.Configuration cfg, int width) {
+        return Math.max(1, cfg.scale * cfg.width / width);
     }
 
 
     @Override
     public void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        g.setColor(foreground);
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                if (display[x][y]) {
-                    g.fillRect(x * scale, y * scale, scale, scale);
-                }
+        long[] words = handoff.acquire();
+        int version = handoff.frontVersion();
+        if (version != paintedVersion) {
+            paintedVersion = version;
+            if (planes == 1) {
+                copyPixels(words);
+            } else {
+                copyPlanes(words);
             }
         }
+        g.drawImage(image, 0, 0, width * scale, height * scale, null);
     }
 
 
-    public boolean setSprite(int x, int y, int[] sprite) {
-        boolean erased = false;
-
-        for (int yi = y; yi < y + sprite.length; yi++) {
-            // Quirk should be configurable
-            if (yi >= height) break;
-            int py = (yi) % height;
+    // Palette index 0 is the background and 1 the foreground, so each pixel is just its bit
+    private void copyPixels(long[] words) {
+        int dst = 0;
+        for (int y = 0; y < height; y++) {
+            int src = y * wordsPerRow;
+            for (int x = 0; x < width; x++) {
+                pixels[dst++] = (byte) ((words[src + (x >>> 6)] >>> (63 - (x & 63))) & 1);
+            }
+        }
+    }
 
-            for (int i = 0; i < 8; i++) {
-                // Quirk - should be configurable
-                if ((x + i) >= width) break;
-                int px = (x + i) % width;
-                boolean flipPixel = ((sprite[yi - y] & (0b1000_0000 >> i)) != 0);
 
-                if (flipPixel) {
-                    display[px][py] = !display[px][py];
-                    if (!display[px][py]) {
-                        erased = true;
-                    }
-                }
+    // Kept apart from copyPixels so the single plane loop stays as tight as before, index is plane 1 bit then plane 2
+    private void copyPlanes(long[] words) {
+        int dst = 0;
+        for (int y = 0; y < height; y++) {
+            int src = y * wordsPerRow;
+            for (int x = 0; x < width; x++) {
+                int word = src + (x >>> 6);
+                int shift = 63 - (x & 63);
+                int plane1 = (int) (words[word] >>> shift) & 1;
+                int plane2 = (int) (words[word + planeWords] >>> shift) & 1;
+                pixels[dst++] = (byte) (plane1 | plane2 << 1);
             }
         }
-
-        return erased;
     }
 
 
-    public void clearDisplay() {
-        for (int x = 0; x < width; x++) {
-            Arrays.fill(display[x], false);
+    private IndexColorModel palette() {
+        int[] colors = {background, foreground, plane2Color, blendColor};
+        int size = planes == 1 ? 2 : 4;
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) {
+            r[i] = (byte) (colors[i] >> 16);
+            g[i] = (byte) (colors[i] >> 8);
+            b[i] = (byte) colors[i];
         }
+        return new IndexColorModel(8, size, r, g, b);
     }
 }
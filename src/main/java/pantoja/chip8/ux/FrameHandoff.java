@@ -0,0 +1,62 @@
+package pantoja.chip8.ux;
+
+import pantoja.chip8.memory.FrameBuffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer carrying finished frames from the emulation thread to the EDT without locks.
+ * <p>
+ * The emulation thread copies a frame into its back buffer and swaps it with the shared middle buffer, the EDT
+ * swaps its front buffer with the middle one when a fresh frame is waiting. Neither side ever waits for the other,
+ * the EDT always paints the most recent complete frame and frames it never got to are simply replaced. The atomic
+ * swap is what makes the copied pixels visible to the EDT.
+ */
+public final class FrameHandoff {
+    private static final int INDEX_MASK = 0b011;
+    private static final int FRESH = 0b100;
+
+    private final long[][] buffers;
+    private final int[] versions = new int[3];
+    // Index of the middle buffer, plus FRESH when the producer has swapped in a frame the EDT hasn't taken yet
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 2;   // emulation thread only
+    private int front = 0;  // EDT only
+
+
+    public FrameHandoff(FrameBuffer frameBuffer) {
+        int length = frameBuffer.words().length;
+        buffers = new long[][]{new long[length], new long[length], new long[length]};
+        versions[0] = -1;
+    }
+
+
+    /**
+     * Emulation thread: hands over a copy of the frame as it is right now
+     */
+    public void publish(FrameBuffer frameBuffer) {
+        long[] words = frameBuffer.words();
+        System.arraycopy(words, 0, buffers[back], 0, words.length);
+        versions[back] = frameBuffer.version();
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+
+    /**
+     * EDT: moves to the newest published frame if there is one, then returns the packed pixels to paint
+     */
+    public long[] acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return buffers[front];
+    }
+
+
+    /**
+     * EDT: the frame buffer version of the buffer last returned by acquire
+     */
+    public int frontVersion() {
+        return versions[front];
+    }
+}
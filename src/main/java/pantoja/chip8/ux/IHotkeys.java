@@ -0,0 +1,30 @@
+package pantoja.chip8.ux;
+
+/**
+ * Emulator controls bound to keys outside the CHIP-8 keypad
+ */
+public interface IHotkeys {
+
+    /**
+     * Settings were applied, restart with the new configuration
+     */
+    void reload();
+
+
+    void saveState();
+
+
+    void loadState();
+
+
+    /**
+     * Called with true when the rewind key goes down and false when it is released
+     */
+    void setRewinding(boolean rewinding);
+
+
+    /**
+     * Starts or finishes recording input to a movie
+     */
+    void toggleRecording();
+}
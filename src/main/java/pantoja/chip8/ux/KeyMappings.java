@@ -1,5 +1,6 @@
 package pantoja.chip8.ux;
 
+import pantoja.chip8.io.IKeyInput;
 import pantoja.chip8.util.Config;
 
 import javax.swing.AbstractAction;
@@ -33,7 +34,7 @@ public final class KeyMappings {
     );
 
 
-    public static void install(JComponent component, Keypad keypad, Runnable onReload) {
+    public static void install(JComponent component, IKeyInput keypad, IHotkeys hotkeys) {
         InputMap inputMap = component.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
         ActionMap actionMap = component.getActionMap();
 
@@ -67,10 +68,50 @@ public final class KeyMappings {
                 SettingsFrame settings = new SettingsFrame(Config.get(), updated -> {
                     Config.set(updated);
                     System.out.println("Reloading emulator with ROM: " + updated.romPath);
-                    onReload.run();
+                    hotkeys.reload();
                 });
                 settings.setVisible(true);
             }
         });
+
+        // Quick save and load of the machine state
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0, false), "save_state");
+        actionMap.put("save_state", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                hotkeys.saveState();
+            }
+        });
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F9, 0, false), "load_state");
+        actionMap.put("load_state", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                hotkeys.loadState();
+            }
+        });
+
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F2, 0, false), "toggle_recording");
+        actionMap.put("toggle_recording", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                hotkeys.toggleRecording();
+            }
+        });
+
+        // Rewind for as long as backspace is held
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_BACK_SPACE, 0, false), "rewind_start");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_BACK_SPACE, 0, true), "rewind_stop");
+        actionMap.put("rewind_start", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                hotkeys.setRewinding(true);
+            }
+        });
+        actionMap.put("rewind_stop", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                hotkeys.setRewinding(false);
+            }
+        });
     }
 }
@@ -1,10 +1,13 @@
 package pantoja.chip8.ux;
 
 import pantoja.chip8.util.Config;
+import pantoja.chip8.util.Profile;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JColorChooser;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -34,15 +37,32 @@ public final class SettingsFrame extends JFrame {
     private final JTextField romPathField = new JTextField();
     private final JPanel bgSwatch = new JPanel();
     private final JPanel fgSwatch = new JPanel();
+    private final JPanel plane2Swatch = new JPanel();
+    private final JPanel blendSwatch = new JPanel();
     private final JSpinner cpuHzSpinner;
     private final JSpinner timerHzSpinner;
+    private final JCheckBox frameBatchedBox = new JCheckBox();
+    private final JSpinner instructionsPerFrameSpinner;
+    private final JSpinner traceCapacitySpinner;
+    private final JCheckBox decoderCacheBox = new JCheckBox();
+    private final JCheckBox blockCompilerBox = new JCheckBox();
+    private final JCheckBox skipIdleLoopsBox = new JCheckBox();
+    private final JCheckBox wrapSpritesBox = new JCheckBox();
+    private final JComboBox<Profile> profileBox = new JComboBox<>(Profile.values());
+    private final JSpinner rewindBufferSpinner;
+    // Seeds don't fit an int spinner, parsed on apply
+    private final JTextField randomSeedField = new JTextField(20);
     private final JSpinner soundFreqSpinner;
     private final JSpinner soundAmpSpinner;
+    private final JCheckBox squareWaveBox = new JCheckBox();
+    private final JSpinner audioBufferSpinner;
     private final JSpinner widthSpinner;
     private final JSpinner heightSpinner;
     private final JSpinner scaleSpinner;
     private Color background;
     private Color foreground;
+    private Color plane2Color;
+    private Color blendColor;
 
 
     public SettingsFrame(Config.Configuration initial, Consumer<Config.Configuration> onApply) {
@@ -53,14 +73,28 @@ public final class SettingsFrame extends JFrame {
         romPathField.setText(initial.romPath);
         romPathField.setEditable(false);
 
-        background = initial.background;
-        foreground = initial.foreground;
+        background = new Color(initial.background);
+        foreground = new Color(initial.foreground);
+        plane2Color = new Color(initial.plane2Color);
+        blendColor = new Color(initial.blendColor);
 
         cpuHzSpinner = spinnerInt(initial.cpuHz, 1, 100_000, 50);
         timerHzSpinner = spinnerInt(initial.timerHz, 1, 1000, 1);
+        frameBatchedBox.setSelected(initial.frameBatched);
+        instructionsPerFrameSpinner = spinnerInt(initial.instructionsPerFrame, 0, 100_000, 1);
+        traceCapacitySpinner = spinnerInt(initial.traceCapacity, 0, 1 << 20, 64);
+        decoderCacheBox.setSelected(initial.decoderCache);
+        blockCompilerBox.setSelected(initial.blockCompiler);
+        skipIdleLoopsBox.setSelected(initial.skipIdleLoops);
+        wrapSpritesBox.setSelected(initial.wrapSprites);
+        profileBox.setSelectedItem(initial.profile);
+        rewindBufferSpinner = spinnerInt(initial.rewindBufferKb, 0, 1 << 20, 256);
+        randomSeedField.setText(Long.toString(initial.randomSeed));
 
         soundFreqSpinner = spinnerInt(initial.soundFreq, 1, 10_000, 10);
         soundAmpSpinner = spinnerInt(initial.soundAmplitude, 0, 127, 1);
+        squareWaveBox.setSelected(initial.squareWave);
+        audioBufferSpinner = spinnerInt(initial.audioBufferMs, 5, 1000, 5);
 
         widthSpinner = spinnerInt(initial.width, 1, 1024, 1);
         heightSpinner = spinnerInt(initial.height, 1, 1024, 1);
@@ -96,10 +130,22 @@ public final class SettingsFrame extends JFrame {
         // Timing
         addRow(form, c, row++, new JLabel("CPU Hz"), cpuHzSpinner);
         addRow(form, c, row++, new JLabel("Timer Hz"), timerHzSpinner);
+        addRow(form, c, row++, new JLabel("Batch Per Frame"), frameBatchedBox);
+        addRow(form, c, row++, new JLabel("Instructions / Frame (0 = auto)"), instructionsPerFrameSpinner);
+        addRow(form, c, row++, new JLabel("Trace Capacity (0 = off)"), traceCapacitySpinner);
+        addRow(form, c, row++, new JLabel("Cache Decoded Instructions"), decoderCacheBox);
+        addRow(form, c, row++, new JLabel("Compile Hot Blocks"), blockCompilerBox);
+        addRow(form, c, row++, new JLabel("Skip Idle Loops"), skipIdleLoopsBox);
+        addRow(form, c, row++, new JLabel("Wrap Sprites At Edges"), wrapSpritesBox);
+        addRow(form, c, row++, new JLabel("Profile"), profileBox);
+        addRow(form, c, row++, new JLabel("Rewind Buffer KB (0 = off)"), rewindBufferSpinner);
+        addRow(form, c, row++, new JLabel("Random Seed (0 = new each load)"), randomSeedField);
 
         // Sound
         addRow(form, c, row++, new JLabel("Sound Frequency (Hz)"), soundFreqSpinner);
         addRow(form, c, row++, new JLabel("Sound Amplitude (0–127)"), soundAmpSpinner);
+        addRow(form, c, row++, new JLabel("Square Wave"), squareWaveBox);
+        addRow(form, c, row++, new JLabel("Audio Buffer (ms)"), audioBufferSpinner);
 
         // Display
         addRow(form, c, row++, new JLabel("Display Width"), widthSpinner);
@@ -125,10 +171,28 @@ public final class SettingsFrame extends JFrame {
             }
         });
 
-        bgSwatch.setPreferredSize(new Dimension(40, 20));
-        fgSwatch.setPreferredSize(new Dimension(40, 20));
-        bgSwatch.setBorder(BorderFactory.createLineBorder(Color.DARK_GRAY));
-        fgSwatch.setBorder(BorderFactory.createLineBorder(Color.DARK_GRAY));
+        JButton pickPlane2 = new JButton("Pick...");
+        pickPlane2.addActionListener(e -> {
+            Color chosen = JColorChooser.showDialog(this, "Choose XO-CHIP Plane 2 Color", plane2Color);
+            if (chosen != null) {
+                plane2Color = chosen;
+                updateSwatches();
+            }
+        });
+
+        JButton pickBlend = new JButton("Pick...");
+        pickBlend.addActionListener(e -> {
+            Color chosen = JColorChooser.showDialog(this, "Choose XO-CHIP Both Planes Color", blendColor);
+            if (chosen != null) {
+                blendColor = chosen;
+                updateSwatches();
+            }
+        });
+
+        for (JPanel swatch : new JPanel[]{bgSwatch, fgSwatch, plane2Swatch, blendSwatch}) {
+            swatch.setPreferredSize(new Dimension(40, 20));
+            swatch.setBorder(BorderFactory.createLineBorder(Color.DARK_GRAY));
+        }
         updateSwatches();
 
         addRow(form, c, row++,
@@ -139,6 +203,14 @@ public final class SettingsFrame extends JFrame {
                 new JLabel("Foreground"),
                 wrapWithSwatchAndButton(fgSwatch, pickFg));
 
+        addRow(form, c, row++,
+                new JLabel("XO-CHIP Plane 2"),
+                wrapWithSwatchAndButton(plane2Swatch, pickPlane2));
+
+        addRow(form, c, row++,
+                new JLabel("XO-CHIP Both Planes"),
+                wrapWithSwatchAndButton(blendSwatch, pickBlend));
+
         root.add(form, BorderLayout.CENTER);
         root.add(buildButtons(), BorderLayout.SOUTH);
 
@@ -174,12 +246,30 @@ public final class SettingsFrame extends JFrame {
                     .romPath(romPathField.getText())
                     .cpuHz(getInt(cpuHzSpinner))
                     .timerHz(getInt(timerHzSpinner))
+                    .frameBatched(frameBatchedBox.isSelected())
+                    .instructionsPerFrame(getInt(instructionsPerFrameSpinner))
+                    .traceCapacity(getInt(traceCapacitySpinner))
+                    .decoderCache(decoderCacheBox.isSelected())
+                    .blockCompiler(blockCompilerBox.isSelected())
+                    .skipIdleLoops(skipIdleLoopsBox.isSelected())
+                    .wrapSprites(wrapSpritesBox.isSelected())
+                    .rewindBufferKb(getInt(rewindBufferSpinner))
+                    .randomSeed(Long.parseLong(randomSeedField.getText().trim()))
                     .soundFreq(getInt(soundFreqSpinner))
                     .soundAmplitude(getInt(soundAmpSpinner))
+                    .squareWave(squareWaveBox.isSelected())
+                    .audioBufferMs(getInt(audioBufferSpinner))
                     .width(getInt(widthSpinner))
                     .height(getInt(heightSpinner))
                     .scale(getInt(scaleSpinner))
-                    .palette(background, foreground);
+                    .palette(background.getRGB(), foreground.getRGB())
+                    .planeColors(plane2Color.getRGB(), blendColor.getRGB());
+
+            // Only a different profile resets the quirks and wrapping, so quirks set elsewhere survive an apply
+            Profile profile = (Profile) profileBox.getSelectedItem();
+            if (profile != current.profile) {
+                b.profile(profile);
+            }
 
             Config.Configuration updated = b.build();
             onApply.accept(updated);
@@ -201,14 +291,28 @@ public final class SettingsFrame extends JFrame {
         romPathField.setText(d.romPath);
         setSpinner(cpuHzSpinner, d.cpuHz);
         setSpinner(timerHzSpinner, d.timerHz);
+        frameBatchedBox.setSelected(d.frameBatched);
+        setSpinner(instructionsPerFrameSpinner, d.instructionsPerFrame);
+        setSpinner(traceCapacitySpinner, d.traceCapacity);
+        decoderCacheBox.setSelected(d.decoderCache);
+        blockCompilerBox.setSelected(d.blockCompiler);
+        skipIdleLoopsBox.setSelected(d.skipIdleLoops);
+        wrapSpritesBox.setSelected(d.wrapSprites);
+        profileBox.setSelectedItem(d.profile);
+        setSpinner(rewindBufferSpinner, d.rewindBufferKb);
+        randomSeedField.setText(Long.toString(d.randomSeed));
         setSpinner(soundFreqSpinner, d.soundFreq);
         setSpinner(soundAmpSpinner, d.soundAmplitude);
+        squareWaveBox.setSelected(d.squareWave);
+        setSpinner(audioBufferSpinner, d.audioBufferMs);
         setSpinner(widthSpinner, d.width);
         setSpinner(heightSpinner, d.height);
         setSpinner(scaleSpinner, d.scale);
 
-        background = d.background;
-        foreground = d.foreground;
+        background = new Color(d.background);
+        foreground = new Color(d.foreground);
+        plane2Color = new Color(d.plane2Color);
+        blendColor = new Color(d.blendColor);
         updateSwatches();
     }
 
@@ -239,8 +343,12 @@ public final class SettingsFrame extends JFrame {
     private void updateSwatches() {
         bgSwatch.setBackground(background);
         fgSwatch.setBackground(foreground);
+        plane2Swatch.setBackground(plane2Color);
+        blendSwatch.setBackground(blendColor);
         bgSwatch.repaint();
         fgSwatch.repaint();
+        plane2Swatch.repaint();
+        blendSwatch.repaint();
     }
 
     // ----- Small UI helpers -----
@@ -1,119 +1,187 @@
 package pantoja.chip8.ux;
 
+import pantoja.chip8.io.IAudio;
+import pantoja.chip8.io.ToneGenerator;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-public class Sound {
-    private static final float SAMPLE_RATE = 44100f;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Beeper on its own thread, so a stalled emulation thread can't starve the audio line.
+ * <p>
+ * The audio thread copies the tone from a ToneGenerator wavetable into the line in small chunks, or silence while
+ * the sound timer is off, and the emulation thread just flips a volatile gate. The line buffer is kept small for low
+ * latency, and every time the thread finds it drained before writing the next chunk an underrun is counted.
+ */
+public class Sound implements IAudio {
     private static final int BITS = 8;
     private static final int CHANNELS = 1;
-    private static final int MAX_WRITE_CAP_BYTES = 2048;
-
-    public volatile boolean running = false;
+    private static final int MIN_CHUNK_BYTES = 64;
 
-    private final byte amplitude;
     private final AudioFormat format;
-    private final int periodSamples;
-    private final byte[] buffer;
-    private final AtomicBoolean lineStarted = new AtomicBoolean(false);
-
-    private SourceDataLine line;
-    private boolean lastRunning = false;
-    private int phaseSample = 0;
-
-
-    public Sound(int frequencyHz, int amplitude) {
-        if (frequencyHz <= 0)
-            throw new IllegalArgumentException("frequencyHz must be > 0");
-        if (amplitude < 0 || amplitude > 127)
-            throw new IllegalArgumentException("amplitude must be in [0,127]");
-
-        this.amplitude = (byte) amplitude;
-
+    private final ToneGenerator tone;
+    private final int bufferBytes;
+    private final AtomicLong underruns = new AtomicLong();
+
+    private volatile boolean active;
+    private volatile boolean closed;
+    private volatile Thread thread;
+
+    // XO-CHIP pattern handed to the audio thread through a sequence lock, odd while the emulation thread writes
+    private volatile int patternSequence;
+    private volatile boolean patternMode;
+    private volatile long patternHigh;
+    private volatile long patternLow;
+    private volatile int patternPitch;
+
+
+    /**
+     * @param bufferMs Size of the line buffer, which is also the delay between the sound timer and the speaker
+     */
+    public Sound(int frequencyHz, int amplitude, boolean squareWave, int bufferMs) {
+        tone = new ToneGenerator(frequencyHz, amplitude, squareWave);
         format = new AudioFormat(
-                SAMPLE_RATE,
+                ToneGenerator.SAMPLE_RATE,
                 BITS,
                 CHANNELS,
                 true,
                 false
         );
 
-        this.periodSamples = Math.max(1, Math.round(SAMPLE_RATE / (float) frequencyHz));
-        this.buffer = new byte[Math.max(MAX_WRITE_CAP_BYTES, 512)];
+        bufferBytes = Math.max(4 * MIN_CHUNK_BYTES, ToneGenerator.SAMPLE_RATE * bufferMs / 1000);
     }
 
 
-    public void audioLoop() {
-        if (!running) {
-            if (lastRunning) {
-                line.flush();
-            }
-            lastRunning = false;
-            return;
+    @Override
+    public void setActive(boolean active) {
+        this.active = active;
+        // Opening the line on first use avoids a crackle at startup, and ROMs that never beep never open it
+        if (active && thread == null && !closed) {
+            Thread t = new Thread(this::audioLoop, "chip8-audio");
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            thread = t;
+            t.start();
         }
+    }
 
-        // lazy loading avoids a crackle when the line is first turned on
-        if (!lineStarted.get()) {
-            startLine();
-        }
 
-        lastRunning = true;
+    @Override
+    public void setPattern(long high, long low, int pitch) {
+        patternSequence++;
+        patternHigh = high;
+        patternLow = low;
+        patternPitch = pitch;
+        patternMode = true;
+        patternSequence++;
+    }
 
-        int available = line.available();
-        if (available <= 0) return;
 
-        int toWrite = Math.min(available, MAX_WRITE_CAP_BYTES);
-        toWrite = Math.min(toWrite, buffer.length);
+    @Override
+    public void clearPattern() {
+        patternSequence++;
+        patternMode = false;
+        patternSequence++;
+    }
 
-        int availablePeriods = (toWrite / periodSamples) * periodSamples;
-        if (availablePeriods <= 0) return;
 
-        fillTriangleWave(buffer, availablePeriods);
-        line.write(buffer, 0, availablePeriods);
+    @Override
+    public void update() {
+        // Nothing to do, the audio thread feeds the line
     }
 
 
-    private void startLine() {
-        try {
-            line = AudioSystem.getSourceDataLine(format);
-            line.open(format);
-            line.start();
-            lineStarted.set(true);
-        } catch (LineUnavailableException e) {
-            throw new RuntimeException("Unable to open audio line");
-        }
+    /**
+     * Times the line ran dry before the audio thread wrote more, each one an audible click
+     */
+    public long underruns() {
+        return underruns.get();
     }
 
 
-    private void fillTriangleWave(byte[] out, int lenSamples) {
-        int half = periodSamples / 2;
+    /**
+     * Stops the audio thread and releases the line, the sound can't be used again afterwards
+     */
+    public void close() {
+        closed = true;
+        active = false;
+        Thread t = thread;
+        if (t != null) {
+            // The thread notices within one chunk, when its blocking write returns
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
 
-        for (int i = 0; i < lenSamples; i++) {
-            int value = (phaseSample < half)
-                    ? -amplitude + (2 * amplitude * phaseSample) / half
-                    : amplitude - (2 * amplitude * (phaseSample - half)) / half;
+    private void audioLoop() {
+        SourceDataLine line;
+        try {
+            line = AudioSystem.getSourceDataLine(format);
+            line.open(format, bufferBytes);
+            line.start();
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            System.out.println("Unable to open audio line: " + e.getMessage());
+            return;
+        }
 
-            out[i] = (byte) value;
+        // A quarter of the buffer per write keeps it at least three quarters full
+        byte[] chunk = new byte[Math.max(MIN_CHUNK_BYTES, line.getBufferSize() / 4)];
+        boolean primed = false;
+        boolean wasActive = false;
+        int appliedSequence = 0;
+        while (!closed) {
+            appliedSequence = applyPattern(appliedSequence);
+            boolean on = active;
+            if (wasActive && !on) {
+                // Cut the queued tone instead of letting the buffer play out
+                line.flush();
+                primed = false;
+            }
+            tone.render(chunk, 0, chunk.length, on);
+            wasActive = on;
 
-            phaseSample++;
-            if (phaseSample >= periodSamples) {
-                phaseSample = 0;
+            if (primed && line.available() >= line.getBufferSize()) {
+                underruns.incrementAndGet();
             }
+            // Blocks until there is room, which is what paces this thread
+            line.write(chunk, 0, chunk.length);
+            primed = true;
         }
+        line.stop();
+        line.close();
     }
 
 
-    private void fillSquareWave(byte[] out, int lenSamples) {
-        int half = periodSamples / 2;
-
-        for (int i = 0; i < lenSamples; i++) {
-            out[i] = (phaseSample < half) ? amplitude : (byte) -amplitude;
-            phaseSample++;
-            if (phaseSample >= periodSamples) phaseSample = 0;
+    // Audio thread: copies a pattern change into the tone generator, retrying if it was caught mid write
+    private int applyPattern(int applied) {
+        int sequence = patternSequence;
+        if (sequence == applied) {
+            return applied;
+        }
+        while (true) {
+            if ((sequence & 1) == 0) {
+                boolean mode = patternMode;
+                long high = patternHigh;
+                long low = patternLow;
+                int pitch = patternPitch;
+                if (patternSequence == sequence) {
+                    if (mode) {
+                        tone.setPattern(high, low, pitch);
+                    } else {
+                        tone.clearPattern();
+                    }
+                    return sequence;
+                }
+            }
+            Thread.onSpinWait();
+            sequence = patternSequence;
         }
     }
 }
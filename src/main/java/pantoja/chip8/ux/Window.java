@@ -1,19 +1,29 @@
 package pantoja.chip8.ux;
 
+import pantoja.chip8.io.IDisplay;
+import pantoja.chip8.io.IKeyInput;
+import pantoja.chip8.memory.FrameBuffer;
+
 import javax.swing.JFrame;
+import java.awt.EventQueue;
 
-public class Window extends JFrame {
+public class Window extends JFrame implements IDisplay {
     private final JFrame frame;
     public DisplayPanel display;
-    private final Keypad keypad;
-    private final Runnable onReload;
+    private final IKeyInput keypad;
+    private final IHotkeys hotkeys;
+    private final Runnable repaint;
+    private volatile FrameHandoff handoff;
+    private FrameBuffer shown;
+    // Last frame buffer version handed to the EDT, frames where nothing was drawn don't repaint
+    private int presentedVersion;
 
 
-    public Window(Keypad keypad, Runnable onReload) {
+    public Window(IKeyInput keypad, IHotkeys hotkeys) {
         frame = new JFrame("CHIP-8 Emulator");
         this.keypad = keypad;
-        this.onReload = onReload;
-        setupDisplay();
+        this.hotkeys = hotkeys;
+        this.repaint = () -> display.repaint();
 
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setResizable(false);
@@ -21,9 +31,28 @@ public class Window extends JFrame {
     }
 
 
-    public void setupDisplay() {
-        display = new DisplayPanel();
-        KeyMappings.install(display, keypad, onReload);
+    /**
+     * Shows the given frame buffer. A machine reset in place keeps its frame buffer, and then the panel, its key
+     * bindings and the handoff buffers are kept too. Otherwise the old panel is taken out of the frame, along with
+     * the key bindings installed on it, before the new one goes in.
+     */
+    public void setupDisplay(FrameBuffer frameBuffer) {
+        if (display != null && shown == frameBuffer && display.matchesConfig()) {
+            handoff.publish(frameBuffer);
+            presentedVersion = frameBuffer.version();
+            display.repaint();
+            return;
+        }
+        if (display != null) {
+            frame.remove(display);
+        }
+
+        shown = frameBuffer;
+        handoff = new FrameHandoff(frameBuffer);
+        handoff.publish(frameBuffer);
+        presentedVersion = frameBuffer.version();
+        display = new DisplayPanel(frameBuffer, handoff);
+        KeyMappings.install(display, keypad, hotkeys);
         frame.add(display);
         frame.pack();
     }
@@ -36,12 +65,15 @@ public class Window extends JFrame {
     }
 
 
-    public void clear() {
-        display.clearDisplay();
-    }
-
-
-    public boolean setSprite(int x, int y, int[] sprite) {
-        return display.setSprite(x, y, sprite);
+    @Override
+    public void frameReady(FrameBuffer frameBuffer) {
+        int version = frameBuffer.version();
+        if (version == presentedVersion) {
+            return;
+        }
+        presentedVersion = version;
+        // Called at the frame boundary on the emulation thread, so this is always a finished frame
+        handoff.publish(frameBuffer);
+        EventQueue.invokeLater(repaint);
     }
 }